@@ -3,7 +3,6 @@ package Client;
 import MyExceptions.InvalidPasswordException;
 import MyExceptions.UsernameAlreadyTakenException;
 import Client.GUI.CustomFrame;
-import Server.Database.Hotel.Hotel;
 import Server.Message;
 
 import com.formdev.flatlaf.themes.FlatMacLightLaf;
@@ -60,13 +59,10 @@ public class GUIHOTELIERCustomerClient extends HOTELIERClient {
     @Override
     public synchronized void notifyEvent(String city, List<String> hotels) throws RemoteException {
         boolean[] updated = rankingUpdate(city, hotels);
-        showMessageDialog(null, "Notifica evento: aggiornamento classifica di " + city + "\n"
-                        + "1. " + hotels.get(0) + ((updated[0])? " (NEW)\n" : "\n")
-                        + "2. " + hotels.get(1) + ((updated[1])? " (NEW)\n" : "\n")
-                        + "3. " + hotels.get(2) + ((updated[2])? " (NEW)\n" : "\n")
-                        + "4. " + hotels.get(3) + ((updated[3])? " (NEW)\n" : "\n")
-                        + "5. " + hotels.get(4) + ((updated[4])? " (NEW)\n" : "\n"),
-                "Ranking update notification", JOptionPane.INFORMATION_MESSAGE);
+        StringBuilder message = new StringBuilder("Notifica evento: aggiornamento classifica di " + city + "\n");
+        for (int i = 0; i < TOP_HOTELS; i++)
+            message.append(i + 1).append(". ").append(hotels.get(i)).append((updated[i])? " (NEW)\n" : "\n");
+        showMessageDialog(null, message.toString(), "Ranking update notification", JOptionPane.INFORMATION_MESSAGE);
     }
 
 
@@ -79,12 +75,12 @@ public class GUIHOTELIERCustomerClient extends HOTELIERClient {
      * @return un array che indica quali posizioni hanno subito un aggiornamento
      */
     final boolean[] rankingUpdate(String city, List<String> hotels) {
-        boolean[] updated = new boolean[5];
+        boolean[] updated = new boolean[TOP_HOTELS];
         List<String> ranking = getRanking(city); // classifica non aggiornata
         // Aggiorno la classifica memorizzata con la nuova
         setRanking(city, hotels);
         // Per ogni posizione, controlla se è sempre presente lo stesso hotel o meno
-        for (int i = 0; i < Hotel.Type.N_TYPES; i++) updated[i] = (!hotels.get(i).equals(ranking.get(i)));
+        for (int i = 0; i < TOP_HOTELS; i++) updated[i] = (!hotels.get(i).equals(ranking.get(i)));
         return updated;
     }
 
@@ -131,7 +127,7 @@ public class GUIHOTELIERCustomerClient extends HOTELIERClient {
     public void registerForCallback(List<String> cities) {
         try {
             setLocalRanking(cities);
-            List<List<String>> hotels = server.registerForCallback(stub, cities);
+            List<List<String>> hotels = server.registerForCallback(stub, cities, TOP_HOTELS);
             if (hotels != null) {
                 for (int i = 0; i < cities.size(); i++) setRanking(cities.get(i), hotels.get(i));
                 showMessageDialog(frame, "Città per cui desideri ricevere aggiornamenti in questa sessione:\n"
@@ -202,7 +198,7 @@ public class GUIHOTELIERCustomerClient extends HOTELIERClient {
 
     public String[] showReviews(String hotel, String city) {
         try {
-            String[] reply = sendRequest(Message.Request.getMessage(SHOWREVIEWS, hotel, city));
+            String[] reply = sendPagedRequest(SHOWREVIEWS, hotel, city);
             if (reply == null) return null;
             if (reply.length > 0) {
                 if (reply[0].startsWith(SUCCESS.toString())) {
@@ -237,7 +233,7 @@ public class GUIHOTELIERCustomerClient extends HOTELIERClient {
 
     public String[] showMyReviews() {
         try {
-            String[] reply = sendRequest(Message.Request.getMessage(SHOWMYREVIEWS, getSession()));
+            String[] reply = sendPagedRequest(SHOWMYREVIEWS, getSession());
             if (reply == null) return null;
             if (reply.length > 0) {
                 if (reply[0].startsWith(SUCCESS.toString())) {
@@ -3,8 +3,10 @@ package Client;
 import Server.Message;
 import Server.RMIHOTELIERServer;
 
+import java.io.EOFException;
 import java.io.IOException;
 import java.net.InetSocketAddress;
+import java.net.ProtocolException;
 import java.nio.ByteBuffer;
 import java.nio.channels.SocketChannel;
 import java.nio.charset.Charset;
@@ -21,6 +23,8 @@ import java.util.*;
 import java.util.stream.Collectors;
 
 import static Client.HOTELIERClient.Command.LOGOUT;
+import static Server.Message.Reply.Info.*;
+import static Server.Message.Reply.Status.SUCCESS;
 
 
 /**
@@ -36,6 +40,10 @@ public abstract class HOTELIERClient extends RemoteObject implements Runnable, C
     public static final Charset CHARSET = StandardCharsets.UTF_8;
     /** Dimensione del buffer */
     private static final int capacity = 1024;
+    /** Numero di recensioni richieste per ciascuna pagina */
+    protected static final int PAGE = 20;
+    /** Numero di primi hotel in classifica per città di cui il client riceve le notifiche */
+    protected static final int TOP_HOTELS = 5;
 
     /** Canale per operazioni di I/O sulla rete via TCP */
     protected final SocketChannel channel;
@@ -59,6 +67,11 @@ public abstract class HOTELIERClient extends RemoteObject implements Runnable, C
         // Apro la socket channel per comunicare con il server alla porta indicata
         channel = SocketChannel.open();
         channel.connect(new InetSocketAddress(server_address, connection_port));
+        // Negozio con il server il formato dei messaggi a lunghezza prefissata, inviando il preambolo e attendendo
+        // che il server risponda con lo stesso
+        channel.write(Message.Frame.preamble());
+        if (!Message.Frame.isPreamble(read(Message.Frame.getPreambleSize())))
+            throw new ProtocolException("message format negotiation failed");
         // Reperisco dal registry lo stub associato al servizio remoto
         Registry registry = LocateRegistry.getRegistry(server_address, registry_port);
         server = (RMIHOTELIERServer) registry.lookup(RMIHOTELIERServer.SERVICE_NAME);
@@ -134,20 +147,70 @@ public abstract class HOTELIERClient extends RemoteObject implements Runnable, C
     final String[] sendRequest(String message) throws IOException {
         // Controllo se il canale è connesso prima di inviare la richiesta, altrimenti ritorno
         if (!channel.isConnected()) return null;
-        else channel.write(ByteBuffer.wrap(message.getBytes(CHARSET)));
-
-        StringBuilder msg = new StringBuilder();
-        // Finché il buffer viene riempito interamente, continuo a leggere dal canale per verificare che non ci sia altro
-        while (buffer.limit() == buffer.capacity()) {
-            buffer.clear(); // torno in modalità scrittura
-            channel.read(buffer); // leggo i dati presenti sul canale nel buffer
-            buffer.flip(); // torno in modalità lettura
-            byte[] bytes = new byte[buffer.limit()];
-            buffer.get(bytes); // copio i dati dal buffer in un array di bytes
-            msg.append(new String(bytes)); // appendo la nuova stringa alla stringa costruita
+        else channel.write(Message.Frame.encode(message));
+
+        return receive();
+    }
+
+    /**
+     * <p align="justify">
+     *     Invia una richiesta di recensioni una pagina alla volta, con pagine di al più {@value #PAGE} recensioni:
+     *     finché il server indica che ci sono altre recensioni, richiede la pagina successiva a partire dal cursore
+     *     ricevuto. Così nessuna risposta contiene tutte le recensioni.
+     * </p> <p align="justify">
+     *     Le pagine vengono riunite in un'unica risposta, suddivisa come in {@link #sendRequest(String)}. Se si verifica
+     *     un errore durante la richiesta di una pagina, restituisce la risposta con l'errore.
+     * </p>
+     * @param command il comando della richiesta
+     * @param args i parametri della richiesta, esclusi quelli di paginazione
+     * @return il messaggio di risposta ricevuto dal server o {@code null}
+     */
+    final String[] sendPagedRequest(Command command, Object... args) throws IOException {
+        Object[] params = Arrays.copyOf(args, args.length + 2);
+        params[args.length] = PAGE;
+        String[] reply = sendRequest(Message.Request.getMessage(command, params));
+        StringJoiner reviews = new StringJoiner("\n");
+        // Lo stato di una pagina seguita da altre recensioni è nella forma [SUCCESS More cursor]
+        String[] status;
+        while (reply != null && reply[0].startsWith(SUCCESS.toString())
+                && (status = reply[0].split(" "))[1].equals(MORE.info)) {
+            reviews.add(reply[1]);
+            params[args.length + 1] = status[2];
+            reply = sendRequest(Message.Request.getMessage(command, params));
         }
-        buffer.clear(); // torno in modalità scrittura per la prossima ricezione (limit = capacity)
-        return msg.toString().split("\n", 2);
+        if (reply == null || reviews.length() == 0 || !reply[0].startsWith(SUCCESS.toString())) return reply;
+        if (reply.length > 1) reviews.add(reply[1]);
+        return new String[] {SUCCESS + FOUND.info, reviews.toString()};
+    }
+
+    /**
+     * <p align="justify">
+     *     Legge dal canale il prossimo messaggio di risposta e lo suddivide in sotto-stringhe: la prima contiene l'esito
+     *     della richiesta, la seconda l'eventuale contenuto della risposta.
+     * </p>
+     * @return il messaggio di risposta ricevuto dal server
+     * @throws IOException se la connessione è stata interrotta prima di ricevere la risposta
+     */
+    private String[] receive() throws IOException {
+        // Leggo l'intestazione con la lunghezza della risposta e successivamente la risposta per intero
+        int length = read(Message.Frame.HEADER).getInt();
+        ByteBuffer reply = read(length);
+        return new String(reply.array(), 0, reply.limit(), CHARSET).split("\n", 2);
+    }
+
+    /**
+     * <p align="justify">
+     *     Legge dal canale esattamente il numero di byte indicato, attendendo finché non sono stati ricevuti tutti.
+     * </p>
+     * @param length il numero di byte da leggere
+     * @return un buffer in modalità lettura contenente i byte letti
+     * @throws IOException se la connessione è stata interrotta prima di ricevere tutti i byte
+     */
+    private ByteBuffer read(int length) throws IOException {
+        // Uso il buffer di questo client se è sufficientemente grande, altrimenti ne alloco uno della dimensione richiesta
+        ByteBuffer buffer = (length <= this.buffer.capacity())? this.buffer.clear().limit(length) : ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) if (channel.read(buffer) == -1) throw new EOFException();
+        return buffer.flip();
     }
 
 
@@ -193,6 +256,7 @@ public abstract class HOTELIERClient extends RemoteObject implements Runnable, C
      * @see #LOGOUT
      * @see #SEARCH
      * @see #SEARCHALL
+     * @see #TOPK
      * @see #INSERTREVIEW
      * @see #SHOWMYBADGES
      * @see #SHOWREVIEWS
@@ -213,6 +277,8 @@ public abstract class HOTELIERClient extends RemoteObject implements Runnable, C
         SEARCH("search", "per effettuare una ricerca di un hotel in una città", "hotel, città"),
         /** Comando per la ricerca degli hotel per città */
         SEARCHALL("searchall", "per trovare tutti gli hotel di una città", "città"),
+        /** Comando per la ricerca dei primi hotel in classifica per città */
+        TOPK("topk", "per trovare i primi hotel in classifica di una città", "città, numero di hotel"),
         /** Comando per la pubblicazione di una recensione */
         INSERTREVIEW("insertreview", "per pubblicare una recensione riferita a un hotel di una città",
                 "hotel, città, punteggio complessivo, punteggi per categoria"),
@@ -70,6 +70,8 @@ public class HOTELIERCustomerClient extends HOTELIERClient {
                     break;
                 case SEARCHALL: searchAllHotels();
                     break;
+                case TOPK: searchTopHotels();
+                    break;
                 case INSERTREVIEW:
                     // Controllo se ha effettuato l'accesso, altrimenti non può pubblicare una recensione
                     if (isLoggedIn()) insertReview();
@@ -117,7 +119,7 @@ public class HOTELIERCustomerClient extends HOTELIERClient {
         // Aggiorno la classifica
         setRanking(city, hotels);
         // Stampo il messaggio di notifica su schermo
-        for (int i = 0; i < Hotel.Type.N_TYPES; i++) {
+        for (int i = 0; i < TOP_HOTELS; i++) {
             if (ranking.get(i).equals(hotels.get(i))) System.out.printf("%d. %s -> %s\n", i + 1, ranking.get(i), hotels.get(i));
             else System.out.printf("%d. %s -> %s (NEW)\n", i + 1, ranking.get(i), hotels.get(i));
         }
@@ -273,7 +275,7 @@ public class HOTELIERCustomerClient extends HOTELIERClient {
                 if (!cities.isEmpty()) {
                     // Imposto l'insieme delle città di interesse per questo utente e lo registro per la callback
                     setLocalRanking(cities);
-                    List<List<String>> hotels = server.registerForCallback(stub, cities);
+                    List<List<String>> hotels = server.registerForCallback(stub, cities, TOP_HOTELS);
                     // Controllo che la registrazione alla callback sia andata a buon fine
                     if (hotels != null) {
                         // Stampo su schermo l'insieme delle città di interesse per cui l'utente si è registrato
@@ -394,6 +396,39 @@ public class HOTELIERCustomerClient extends HOTELIERClient {
         }
     }
 
+    /**
+     * <p align="justify">
+     *     Richiede la città in cui effettuare la ricerca e il numero di hotel. Attende finché non viene inserito
+     *     l'input.
+     * </p> <p align="justify">
+     *     Successivamente invia una richiesta al server da parte del client per ottenere le informazioni relative ai
+     *     primi hotel in classifica nella città.
+     * </p>
+     */
+    private void searchTopHotels() {
+        System.out.println("Inserisci la città in cui vuoi effettuare la ricerca e il numero di hotel.");
+        // Richiede la città in cui effettuare la ricerca
+        System.out.print("Città: ");
+        if (isCancel(input = stream.nextLine())) return;
+        String city = input.trim();
+        // Richiede il numero di hotel finché non è un intero positivo
+        int limit;
+        while (true) {
+            System.out.print("Numero di hotel: ");
+            if (isCancel(input = stream.nextLine())) return;
+            try {
+                if ((limit = Integer.parseInt(input.trim())) > 0) break;
+            } catch (NumberFormatException ignored) { }
+            System.out.println("Attenzione: il numero di hotel deve essere un intero positivo!");
+        }
+        try {
+            // Invio il messaggio di richiesta al server
+            searchParsing(sendRequest(Request.getMessage(TOPK, city, limit)));
+        } catch (IOException e) {
+            exit("Si è verificato un errore durante la ricerca per città.");
+        }
+    }
+
     /**
      * <p align="justify">
      *     Effettua il parsing della risposta da parte del server in seguito alla richiesta di ricerca inviata in
@@ -638,7 +673,7 @@ public class HOTELIERCustomerClient extends HOTELIERClient {
 
         try {
             // Invio il messaggio di richiesta al server e gestisco la risposta
-            String[] reply = sendRequest(Request.getMessage(SHOWREVIEWS, hotel, city));
+            String[] reply = sendPagedRequest(SHOWREVIEWS, hotel, city);
             if (reply == null) return;
             if (reply.length > 0) {
                 // Effetto il parsing della risposta secondo lo schema [STATUS Info Body] dove
@@ -714,7 +749,7 @@ public class HOTELIERCustomerClient extends HOTELIERClient {
     private void showMyReviews() {
         try {
             // Invio il messaggio di richiesta al server e gestisco la risposta
-            String[] reply = sendRequest(Request.getMessage(SHOWMYREVIEWS, getSession()));
+            String[] reply = sendPagedRequest(SHOWMYREVIEWS, getSession());
             if (reply == null) return;
             if (reply.length > 0) {
                 // Effettuo il parsing della risposta secondo lo schema [STATUS Info Body] dove
@@ -886,6 +921,8 @@ public class HOTELIERCustomerClient extends HOTELIERClient {
             System.out.printf("\t%-15s > %s\n", "", "richiesti: " + SEARCH.parameters);
             System.out.printf("\t%-15s %s\n", SEARCHALL.command, SEARCHALL.description);
             System.out.printf("\t%-15s > %s\n", "", "richiesti: " + SEARCHALL.parameters);
+            System.out.printf("\t%-15s %s\n", TOPK.command, TOPK.description);
+            System.out.printf("\t%-15s > %s\n", "", "richiesti: " + TOPK.parameters);
             System.out.printf("\t%-15s %s\n", SHOWREVIEWS.command, SHOWREVIEWS.description);
             System.out.printf("\t%-15s > %s\n", "", "richiesti: " + SHOWREVIEWS.parameters);
         } else {
@@ -895,6 +932,8 @@ public class HOTELIERCustomerClient extends HOTELIERClient {
             System.out.printf("\t%-15s > %s\n", "", "richiesti: " + SEARCH.parameters);
             System.out.printf("\t%-15s %s\n", SEARCHALL.command, SEARCHALL.description);
             System.out.printf("\t%-15s > %s\n", "", "richiesti: " + SEARCHALL.parameters);
+            System.out.printf("\t%-15s %s\n", TOPK.command, TOPK.description);
+            System.out.printf("\t%-15s > %s\n", "", "richiesti: " + TOPK.parameters);
             System.out.printf("\t%-15s %s\n", INSERTREVIEW.command, INSERTREVIEW.description);
             System.out.printf("\t%-15s > %s\n", "", "richiesti: " + INSERTREVIEW.parameters);
             System.out.printf("\t%-15s %s\n", SHOWREVIEWS.command, SHOWREVIEWS.description);
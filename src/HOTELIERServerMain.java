@@ -18,6 +18,15 @@ public class HOTELIERServerMain {
     static String backup_filepath;
     static long ranking_timeout;
     static long backup_timeout;
+    static int reactors;
+    static int request_threads;
+    static int buffer_pool_size;
+    static int buffer_size;
+    static boolean incremental_ranking;
+    static String wal_fsync;
+    static long wal_sync_interval;
+    static boolean backup_pretty_print;
+    static boolean mapped_reviews;
 
     public static void main(String[] args) {
         // Leggo il file di configurazione
@@ -31,7 +40,9 @@ public class HOTELIERServerMain {
         // Avvio il server
         try {
             new HOTELIERServer(listening_port, registry_port, hotel_database, user_database, file_format,
-                    config_filepath, backup_filepath, ranking_timeout, backup_timeout, multicast_address, multicast_port);
+                    config_filepath, backup_filepath, ranking_timeout, backup_timeout, multicast_address, multicast_port,
+                    reactors, request_threads, buffer_pool_size, buffer_size, incremental_ranking, wal_fsync,
+                    wal_sync_interval, backup_pretty_print, mapped_reviews);
         } catch (AlreadyBoundException | IOException e) {
             System.out.println(e.getMessage());
             System.exit(1);
@@ -58,6 +69,15 @@ public class HOTELIERServerMain {
         file_format = properties.getProperty("file_format");
         ranking_timeout = Long.parseLong(properties.getProperty("ranking_timeout"));
         backup_timeout = Long.parseLong(properties.getProperty("backup_timeout"));
+        reactors = Integer.parseInt(properties.getProperty("reactors"));
+        request_threads = Integer.parseInt(properties.getProperty("request_threads"));
+        buffer_pool_size = Integer.parseInt(properties.getProperty("buffer_pool_size"));
+        buffer_size = Integer.parseInt(properties.getProperty("buffer_size"));
+        incremental_ranking = Boolean.parseBoolean(properties.getProperty("incremental_ranking"));
+        wal_fsync = properties.getProperty("wal_fsync");
+        wal_sync_interval = Long.parseLong(properties.getProperty("wal_sync_interval"));
+        backup_pretty_print = Boolean.parseBoolean(properties.getProperty("backup_pretty_print"));
+        mapped_reviews = Boolean.parseBoolean(properties.getProperty("mapped_reviews"));
 
         input.close();
     }
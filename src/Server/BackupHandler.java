@@ -2,14 +2,18 @@ package Server;
 
 import java.io.File;
 import java.io.IOException;
-import java.text.SimpleDateFormat;
-import java.util.Date;
+import java.util.ArrayList;
+import java.util.List;
+
+import Server.Database.Hotel.Hotel;
+import Server.Database.User;
 
 import com.fasterxml.jackson.annotation.JsonAutoDetect;
 import com.fasterxml.jackson.annotation.PropertyAccessor;
 import com.fasterxml.jackson.core.util.DefaultIndenter;
 import com.fasterxml.jackson.core.util.DefaultPrettyPrinter;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
 import com.fasterxml.jackson.databind.SerializationFeature;
 
 
@@ -17,6 +21,18 @@ import com.fasterxml.jackson.databind.SerializationFeature;
  * <p align="justify">
  *     La classe {@code DatabaseHandler} estende la classe {@link Thread} e si occupa di eseguire periodicamente i
  *     backup delle strutture dati del server.
+ * </p> <p align="justify">
+ *     Prima di ogni backup apre un nuovo segmento del log delle modifiche e, una volta completato il backup, elimina
+ *     i segmenti precedenti, le cui modifiche sono comprese nel backup.
+ * </p> <p align="justify">
+ *     Ogni backup ha un numero di sequenza, successivo a quello del backup letto all'avvio, ed è scritto in modo
+ *     atomico su nuovi file (vedi {@link Snapshot}); una volta completato, i file dei backup precedenti vengono
+ *     eliminati. Se le strutture dati non sono state modificate dall'ultimo backup, il backup non viene ripetuto.
+ * </p> <p align="justify">
+ *     Le modifiche vengono sospese solo per copiare utenti e hotel (vedi {@link HOTELIERServer#capture(List, List)}):
+ *     la serializzazione e la scrittura del backup avvengono sulle copie, senza bloccare le richieste. Se l'archivio
+ *     delle recensioni è abilitato, le recensioni non sono copiate ma confermate nell'archivio con il numero di
+ *     sequenza del backup (vedi {@link HOTELIERServer#reviewsBackup(long)}).
  * </p>
  */
 public class BackupHandler extends Thread {
@@ -27,29 +43,36 @@ public class BackupHandler extends Thread {
 
     /** Istanza del server */
     private final HOTELIERServer server;
-    /** File di backup per gli utenti */
-    private final File user_database;
-    /** File di backup per gli hotels */
-    private final File hotel_database;
+    /** Log delle modifiche alle strutture dati del server */
+    private final WriteAheadLog wal;
+    /** Nome dei file di backup per gli utenti */
+    private final String user_database;
+    /** Nome dei file di backup per gli hotels */
+    private final String hotel_database;
+    /** Formato dei file */
+    private final String file_format;
+    /** Directory di backup per gli utenti */
+    private final File user_backup;
+    /** Directory di backup per gli hotels */
+    private final File hotel_backup;
+    /** Formattazione indentata dei file di backup, più leggibile ma più lenta da scrivere */
+    private final boolean pretty_print;
+    /** Numero di sequenza dell'ultimo backup */
+    private long sequence;
 
-    public BackupHandler(long timeout, HOTELIERServer server, String user_database, String hotel_database,
-                         String file_format, String backup_filepath) {
+    BackupHandler(long timeout, HOTELIERServer server, WriteAheadLog wal, String user_database, String hotel_database,
+                  String file_format, String backup_filepath, long sequence, boolean pretty_print) {
         // Assegno i parametri alle variabili
         BackupHandler.timeout = timeout;
         this.server = server;
-
-        // Creo i file per i backup, con uno schema per il nome e il path di questi
-        this.hotel_database = new File(backup_filepath + hotel_dir + hotel_database
-                + new SimpleDateFormat("_yyyy-MM-dd_HH-mm-ss").format(new Date(System.currentTimeMillis())) + file_format);
-        this.user_database = new File(backup_filepath + user_dir + user_database
-                + new SimpleDateFormat("_yyyy-MM-dd_HH-mm-ss").format(new Date(System.currentTimeMillis())) + file_format);
-        try {
-            this.user_database.createNewFile();
-            this.hotel_database.createNewFile();
-        } catch (IOException e) {
-            System.out.println(HOTELIERServer.printCurrentDate()
-                    + "\tServer.HOTELIERServerDatabase.HOTELIERServerDatabase(...): an error occurred while creating user database file");
-        }
+        this.wal = wal;
+        this.user_database = user_database;
+        this.hotel_database = hotel_database;
+        this.file_format = file_format;
+        this.user_backup = new File(backup_filepath + user_dir);
+        this.hotel_backup = new File(backup_filepath + hotel_dir);
+        this.pretty_print = pretty_print;
+        this.sequence = sequence;
     }
 
     @Override
@@ -62,21 +85,41 @@ public class BackupHandler extends Thread {
         // Imposto le proprietà dell'object mapper
         objectMapper.setVisibility(PropertyAccessor.ALL, JsonAutoDetect.Visibility.NONE);
         objectMapper.setVisibility(PropertyAccessor.FIELD, JsonAutoDetect.Visibility.ANY);
-        objectMapper.enable(SerializationFeature.INDENT_OUTPUT);
-        DefaultPrettyPrinter.Indenter indenter = new DefaultIndenter("    ", DefaultIndenter.SYS_LF);
-        DefaultPrettyPrinter printer = new DefaultPrettyPrinter();
-        printer.indentObjectsWith(indenter);
-        printer.indentArraysWith(indenter);
-        objectMapper.setDefaultPrettyPrinter(printer);
+        if (pretty_print) {
+            objectMapper.enable(SerializationFeature.INDENT_OUTPUT);
+            DefaultPrettyPrinter.Indenter indenter = new DefaultIndenter("    ", DefaultIndenter.SYS_LF);
+            DefaultPrettyPrinter printer = new DefaultPrettyPrinter();
+            printer.indentObjectsWith(indenter);
+            printer.indentArraysWith(indenter);
+            objectMapper.setDefaultPrettyPrinter(printer);
+        }
+        ObjectWriter objectWriter = objectMapper.writer();
+        // Numero di record del log compresi nell'ultimo backup
+        long records = 0;
 
         while (Thread.currentThread().isAlive()) {
             try {
                 // Mi metto in attesa per il tempo stabilito
                 Thread.sleep(timeout);
-                // Converto gli oggetti destinati al backup in dati JSON e li salvo sui file indicati
-                server.usersBackup(objectMapper, user_database);
-                server.hotelsBackup(objectMapper, hotel_database);
-                System.out.println(HOTELIERServer.printCurrentDate() + "\tbackup completed");
+                // Se non ci sono state modifiche dall'ultimo backup, non lo ripeto
+                long current = wal.records();
+                if (current == records) continue;
+                // Apro un nuovo segmento del log e copio utenti e hotel, le modifiche registrate nei segmenti
+                // precedenti sono tutte e sole quelle comprese nelle copie
+                List<User> users = new ArrayList<>();
+                List<Hotel> hotels = new ArrayList<>();
+                long segment = wal.checkpoint(() -> server.capture(users, hotels));
+                // Confermo le recensioni dell'archivio, poi converto le copie e le salvo sui file del nuovo backup
+                sequence++;
+                server.reviewsBackup(sequence);
+                server.usersBackup(objectWriter, file(user_backup, user_database), sequence, users);
+                server.hotelsBackup(objectWriter, file(hotel_backup, hotel_database), sequence, hotels);
+                // Il backup è completo, elimino i segmenti del log e i file dei backup precedenti
+                wal.truncate(segment);
+                clean(objectMapper, user_backup, user_database);
+                clean(objectMapper, hotel_backup, hotel_database);
+                records = current;
+                System.out.println(HOTELIERServer.printCurrentDate() + "\tbackup " + sequence + " completed");
             } catch (InterruptedException e) {
                 System.out.println(HOTELIERServer.printCurrentDate()
                         + "\tServer.BackupHandler.run(): an error occurred while waiting for backup");
@@ -86,4 +129,40 @@ public class BackupHandler extends Thread {
             }
         }
     }
+
+    /**
+     * Restituisce il file del backup corrente nella directory e con il nome indicati.
+     * @param directory la directory di backup
+     * @param filename il nome dei file di backup
+     * @return il file di backup
+     */
+    private File file(File directory, String filename) {
+        return new File(directory, filename + "_" + sequence + file_format);
+    }
+
+    /**
+     * <p align="justify">
+     *     Elimina dalla directory indicata i file dei backup precedenti a quello corrente, in base al numero di
+     *     sequenza contenuto nei file, e i file temporanei rimasti da backup non completati.
+     * </p>
+     * @param objectMapper l'object mapper per la deserializzazione dei dati
+     * @param directory la directory di backup
+     * @param filename il nome dei file di backup
+     */
+    private void clean(ObjectMapper objectMapper, File directory, String filename) {
+        File[] files = directory.listFiles((dir, name) -> name.startsWith(filename));
+        if (files == null) return;
+        for (File file: files) {
+            boolean old;
+            try {
+                old = file.getName().endsWith(Snapshot.TEMP)
+                        || (Snapshot.supported(file.getName()) && Snapshot.sequence(objectMapper, file) < sequence);
+            } catch (IOException e) {
+                continue; // non è un file di backup valido, lo lascio invariato
+            }
+            if (old && !file.delete())
+                System.out.println(HOTELIERServer.printCurrentDate()
+                        + "\tServer.BackupHandler.clean(..): unable to delete backup file " + file.getName());
+        }
+    }
 }
\ No newline at end of file
@@ -0,0 +1,63 @@
+package Server;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+
+/**
+ * <p align="justify">
+ *     La classe {@code BufferPool} rappresenta un insieme di buffer diretti di dimensione fissa, riutilizzati per
+ *     l'invio delle risposte così da non doverne allocare di nuovi per ciascuna risposta.
+ * </p> <p align="justify">
+ *     I buffer vengono allocati solo quando servono, fino alla dimensione del pool. Quando sono tutti in uso vengono
+ *     forniti buffer non diretti, che non vengono reinseriti nel pool al rilascio.
+ * </p> <p align="justify">
+ *     Non è thread-safe: ogni reactor ha un proprio pool, usato solo dal suo thread.
+ * </p>
+ */
+class BufferPool {
+    /** Dimensione minima dei buffer */
+    static final int MIN_BUFFER_SIZE = 64;
+
+    /** Dimensione dei buffer */
+    private final int bufferSize;
+    /** Numero massimo di buffer diretti allocati */
+    private final int poolSize;
+    /** Buffer disponibili */
+    private final ArrayDeque<ByteBuffer> buffers;
+    /** Numero di buffer diretti allocati finora */
+    private int allocated = 0;
+
+    BufferPool(int poolSize, int bufferSize) {
+        this.poolSize = Math.max(poolSize, 0);
+        this.bufferSize = Math.max(bufferSize, MIN_BUFFER_SIZE);
+        this.buffers = new ArrayDeque<>(this.poolSize);
+    }
+
+
+    /**
+     * <p align="justify">
+     *     Restituisce un buffer vuoto in modalità scrittura.
+     * </p>
+     * @return un buffer del pool o, se sono tutti in uso, un nuovo buffer non diretto
+     */
+    ByteBuffer acquire() {
+        ByteBuffer buffer = buffers.poll();
+        if (buffer != null) return buffer.clear();
+        if (allocated < poolSize) {
+            allocated++;
+            return ByteBuffer.allocateDirect(bufferSize);
+        }
+        return ByteBuffer.allocate(bufferSize);
+    }
+
+    /**
+     * <p align="justify">
+     *     Restituisce al pool il buffer indicato, se ne fa parte. Il buffer non deve essere più utilizzato.
+     * </p>
+     * @param buffer il buffer da rilasciare
+     */
+    void release(ByteBuffer buffer) {
+        if (buffer.isDirect() && !buffer.isReadOnly() && buffer.capacity() == bufferSize) buffers.push(buffer);
+    }
+}
@@ -0,0 +1,152 @@
+package Server;
+
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Queue;
+
+
+/**
+ * <p align="justify">
+ *     La classe {@code Connection} rappresenta lo stato di una connessione TCP con un client ed è registrata come
+ *     attachment del canale corrispondente.
+ * </p> <p align="justify">
+ *     Mantiene la sessione in uso sul client: guest, identificato dall'indirizzo del client, o utente loggato,
+ *     identificato dal nome utente, di cui conserva la sessione aperta con l'accesso.
+ * </p> <p align="justify">
+ *     Accumula i dati letti dal canale finché non è disponibile un messaggio di richiesta completo, così che la
+ *     suddivisione dei messaggi non dipenda da come i dati vengono letti dal canale.
+ * </p> <p align="justify">
+ *     Nel formato a lunghezza prefissata il client può inviare più richieste senza attendere le risposte: le richieste
+ *     vengono elaborate una alla volta e le risposte accodate nello stesso ordine.
+ * </p>
+ */
+class Connection {
+    /** Dimensione iniziale del buffer di lettura */
+    private static final int capacity = 1024;
+    /** Numero massimo di buffer in attesa di essere inviati, oltre il quale il canale non viene più letto */
+    static final int MAX_PENDING = 32;
+
+    /** Indirizzo del client */
+    final String address;
+    /** Sessione dell'utente loggato sul client, null se è attiva una sessione da guest */
+    volatile SessionRegistry.Session session;
+    /** Formato dei messaggi in uso sulla connessione */
+    Protocol protocol = Protocol.UNKNOWN;
+    /** Buffer in modalità scrittura in cui vengono accumulati i dati letti dal canale */
+    ByteBuffer input = ByteBuffer.allocate(capacity);
+    /** Buffer in modalità lettura con i dati da inviare al client, in ordine di invio */
+    final Queue<ByteBuffer> output = new ArrayDeque<>();
+    /** Indica se una richiesta è in elaborazione sul pool di thread (accesso riservato al thread del reactor) */
+    boolean busy = false;
+
+    Connection(String address) {
+        this.address = address;
+    }
+
+
+    /**
+     * <p align="justify">
+     *     Restituisce l'identificatore della sessione in uso: il nome utente se è loggato un utente, altrimenti
+     *     l'indirizzo del client.
+     * </p>
+     * @return l'identificatore della sessione
+     */
+    String getSession() {
+        SessionRegistry.Session session = this.session;
+        return (session != null)? session.user : address;
+    }
+
+
+    /**
+     * <p align="justify">
+     *     Restituisce il buffer di lettura, con spazio disponibile per la prossima lettura dal canale.
+     *     Se il buffer è pieno, ne raddoppia la capacità.
+     * </p>
+     * </p> <p align="justify">
+     *     Nel formato a lunghezza prefissata, un buffer pieno di capacità massima contiene almeno una richiesta completa
+     *     in attesa di essere elaborata e viene restituito senza spazio disponibile.
+     * </p>
+     * @return il buffer di lettura in modalità scrittura
+     * @throws ProtocolException se i dati ricevuti superano la dimensione massima di un messaggio di richiesta
+     */
+    ByteBuffer input() throws ProtocolException {
+        if (!input.hasRemaining()) {
+            if (input.capacity() > Message.Frame.HEADER + Message.Frame.MAX_REQUEST) {
+                if (protocol == Protocol.FRAMED) return input;
+                throw new ProtocolException("request too large");
+            }
+            ByteBuffer buffer = ByteBuffer.allocate(input.capacity() * 2);
+            input = buffer.put(input.flip());
+        }
+        return input;
+    }
+
+    /**
+     * <p align="justify">
+     *     Indica se il canale può essere letto: non lo è se ci sono troppi dati in attesa di essere inviati o se il
+     *     buffer di lettura è pieno di richieste ancora da elaborare.
+     * </p>
+     * @return {@code true} se il canale può essere letto, {@code false} altrimenti
+     */
+    boolean readable() {
+        if (output.size() >= MAX_PENDING) return false;
+        return input.hasRemaining() || protocol != Protocol.FRAMED
+                || input.capacity() <= Message.Frame.HEADER + Message.Frame.MAX_REQUEST;
+    }
+
+    /**
+     * <p align="justify">
+     *     Estrae dal buffer di lettura il prossimo messaggio di richiesta completo, se disponibile, e lo analizza
+     *     direttamente sul buffer.
+     * </p> <p align="justify">
+     *     Nel formato testuale il messaggio corrisponde a tutti i dati letti finora, in quello a lunghezza prefissata
+     *     a un messaggio la cui intestazione e il cui contenuto sono stati letti per intero.
+     * </p>
+     * @return la richiesta o {@code null} se non è ancora disponibile un messaggio completo
+     * @throws ProtocolException se il messaggio supera la dimensione massima di un messaggio di richiesta
+     */
+    Message.Request nextRequest() throws ProtocolException {
+        input.flip(); // torno in modalità lettura
+        try {
+            int length;
+            if (protocol == Protocol.TEXT) {
+                if (!input.hasRemaining()) return null;
+                length = input.remaining();
+            } else {
+                if (input.remaining() < Message.Frame.HEADER) return null;
+                length = input.getInt(input.position());
+                if (length < 0 || length > Message.Frame.MAX_REQUEST) throw new ProtocolException("request too large");
+                if (input.remaining() < Message.Frame.HEADER + length) return null;
+                input.position(input.position() + Message.Frame.HEADER);
+            }
+            // Entrambi i formati sono codificati in UTF-8, come nel client
+            Message.Request request = Message.Request.parse(input.array(), input.arrayOffset() + input.position(),
+                    length, StandardCharsets.UTF_8);
+            input.position(input.position() + length);
+            return request;
+        } finally {
+            input.compact(); // torno in modalità scrittura mantenendo i dati non ancora elaborati
+        }
+    }
+
+
+
+    /**
+     * <p align="justify">
+     *     La classe {@code Protocol} rappresenta il formato dei messaggi in uso sulla connessione.
+     * </p>
+     * @see #UNKNOWN
+     * @see #TEXT
+     * @see #FRAMED
+     */
+    enum Protocol {
+        /** Non ancora determinato, nessun dato ricevuto */
+        UNKNOWN,
+        /** Formato testuale, un messaggio corrisponde ai dati letti dal canale */
+        TEXT,
+        /** Formato a lunghezza prefissata, negoziato dal client con il preambolo */
+        FRAMED
+    }
+}
@@ -1,5 +1,8 @@
 package Server.Database.Hotel;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.io.Serial;
 import java.io.Serializable;
 import java.util.*;
@@ -77,6 +80,23 @@ public class Hotel implements Serializable {
 
     public Hotel() { }
 
+    /**
+     * Costruisce una copia dell'hotel indicato.
+     * @param hotel l'hotel da copiare
+     */
+    private Hotel(Hotel hotel) {
+        this.id = hotel.id;
+        this.name = hotel.name;
+        this.address = hotel.address;
+        this.city = hotel.city;
+        this.type = hotel.type;
+        this.phone = hotel.phone;
+        this.description = hotel.description;
+        this.features = hotel.features; // i servizi non cambiano dopo la creazione
+        this.rate = hotel.rate;
+        this.ratings = new Ratings(hotel.ratings.toArray());
+    }
+
 
     // Metodi set (per l'inizializzazione)
     /**
@@ -134,6 +154,8 @@ public class Hotel implements Serializable {
     // Metodi get e set
     public static int getnFields() { return N_FIELDS; }
 
+    public int getId() { return id; }
+
     public String getName() { return name; }
 
     public String getCity() { return city; }
@@ -157,13 +179,21 @@ public class Hotel implements Serializable {
     }
 
     @Override
-    public String toString() {
+    public synchronized String toString() {
         return "{" + name + "; " + address + "; " + city + "; " + type + "; " + phone + "; " + description + "; "
                 + features.toString() + "; " + rate + "; " + ratings.toString() + "; " + rank + "}";
     }
 
 
     // Altri metodi
+    /**
+     * Restituisce una copia dell'hotel nell'istante corrente, che non cambia con le modifiche successive, per il backup.
+     * @return la copia dell'hotel
+     */
+    public synchronized Hotel snapshot() {
+        return new Hotel(this);
+    }
+
     /**
      * <p align="justify">
      *     Aggiorna il rate con il voto indicato e aggiorna i ratings per categoria con i voti indicati.
@@ -178,6 +208,50 @@ public class Hotel implements Serializable {
         ratings.updateRatings(scores, size);
     }
 
+    /**
+     * Scrive l'hotel nel formato binario dei backup.
+     * @param out lo stream di destinazione
+     * @throws IOException se si verifica un errore di scrittura
+     */
+    public synchronized void write(DataOutput out) throws IOException {
+        out.writeInt(id);
+        out.writeUTF(name);
+        out.writeUTF(address);
+        out.writeUTF(city);
+        out.writeUTF(type);
+        out.writeUTF(phone);
+        out.writeUTF(description);
+        out.writeInt(features.size());
+        for (String feature: features) out.writeUTF(feature);
+        out.writeDouble(rate);
+        for (double rating: ratings.toArray()) out.writeDouble(rating);
+    }
+
+    /**
+     * Legge un hotel scritto nel formato binario dei backup con {@link #write(DataOutput)}.
+     * @param in lo stream di origine
+     * @return l'hotel letto
+     * @throws IOException se si verifica un errore di lettura
+     */
+    public static Hotel read(DataInput in) throws IOException {
+        Hotel hotel = new Hotel();
+        hotel.id = in.readInt();
+        hotel.name = in.readUTF();
+        hotel.address = in.readUTF();
+        hotel.city = in.readUTF();
+        hotel.type = in.readUTF();
+        hotel.phone = in.readUTF();
+        hotel.description = in.readUTF();
+        int features = in.readInt();
+        hotel.features = new LinkedList<>();
+        for (int i = 0; i < features; i++) hotel.features.add(in.readUTF());
+        hotel.rate = in.readDouble();
+        double[] ratings = new double[Ratings.getnCategories()];
+        for (int i = 0; i < ratings.length; i++) ratings[i] = in.readDouble();
+        hotel.ratings = new Ratings(ratings);
+        return hotel;
+    }
+
 
     /**
      * <p align="justify">
@@ -0,0 +1,89 @@
+package Server.Database.Hotel;
+
+import java.util.*;
+
+
+/**
+ * <p align="justify">
+ *     La classe {@code NameIndex} rappresenta un indice inverso dei nomi degli hotel di una città, basato sui trigrammi
+ *     (sequenze di tre caratteri consecutivi) dei nomi in minuscolo.
+ * </p> <p align="justify">
+ *     Una ricerca per sotto-stringa considera solo gli hotel il cui nome contiene tutti i trigrammi della stringa
+ *     cercata, senza scorrere l'intera lista di hotel della città. Le stringhe più corte di un trigramma vengono
+ *     cercate scorrendo tutti i nomi.
+ * </p> <p align="justify">
+ *     L'indice viene costruito al caricamento degli hotel e non viene più modificato, per cui può essere letto da più
+ *     thread senza sincronizzazione.
+ * </p>
+ */
+public class NameIndex {
+    /** Lunghezza dei trigrammi */
+    private static final int N = 3;
+
+    /** Hotel indicizzati */
+    private final Hotel[] hotels;
+    /** Nomi degli hotel in minuscolo, nello stesso ordine */
+    private final String[] names;
+    /** Struttura dati per le liste di hotel che contengono ciascun trigramma */
+    private final Map<Long, int[]> trigrams; // lista di coppie <trigramma, posizioni degli hotel in ordine crescente>
+
+    public NameIndex(Collection<Hotel> hotels) {
+        this.hotels = hotels.toArray(new Hotel[0]);
+        this.names = new String[this.hotels.length];
+        Map<Long, List<Integer>> postings = new HashMap<>();
+        for (int i = 0; i < this.hotels.length; i++) {
+            names[i] = this.hotels[i].getName().toLowerCase();
+            for (int j = 0; j + N <= names[i].length(); j++) {
+                List<Integer> list = postings.computeIfAbsent(trigram(names[i], j), k -> new ArrayList<>());
+                // Lo stesso trigramma può comparire più volte nello stesso nome
+                if (list.isEmpty() || list.get(list.size() - 1) != i) list.add(i);
+            }
+        }
+        this.trigrams = new HashMap<>(postings.size() * 2);
+        postings.forEach((key, list) -> trigrams.put(key, list.stream().mapToInt(Integer::intValue).toArray()));
+    }
+
+
+    /**
+     * <p align="justify">
+     *     Cerca gli hotel il cui nome contiene la stringa indicata, senza distinzione tra maiuscole e minuscole.
+     * </p> <p align="justify">
+     *     Gli hotel vengono restituiti nell'ordine in cui sono stati indicizzati.
+     * </p>
+     * @param query la stringa da cercare
+     * @return la lista di hotel il cui nome contiene {@code query}
+     */
+    public List<Hotel> search(String query) {
+        String name = query.toLowerCase();
+        List<Hotel> result = new ArrayList<>();
+        if (name.length() < N) {
+            for (int i = 0; i < names.length; i++) if (names[i].contains(name)) result.add(hotels[i]);
+        } else {
+            // Reperisco le liste di hotel dei trigrammi della stringa, se un trigramma non compare non ci sono risultati
+            int[][] lists = new int[name.length() - N + 1][];
+            for (int j = 0; j < lists.length; j++) {
+                lists[j] = trigrams.get(trigram(name, j));
+                if (lists[j] == null) return result;
+            }
+            // Interseco le liste partendo dalla più corta, quindi verifico i nomi rimasti
+            Arrays.sort(lists, Comparator.comparingInt(list -> list.length));
+            candidates:
+            for (int i: lists[0]) {
+                for (int j = 1; j < lists.length; j++)
+                    if (Arrays.binarySearch(lists[j], i) < 0) continue candidates;
+                if (names[i].contains(name)) result.add(hotels[i]);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Restituisce il trigramma della stringa indicata che inizia nella posizione indicata, codificato come intero.
+     * @param name la stringa
+     * @param index la posizione del primo carattere
+     * @return il trigramma codificato
+     */
+    private static long trigram(String name, int index) {
+        return ((long) name.charAt(index) << 32) | ((long) name.charAt(index + 1) << 16) | name.charAt(index + 2);
+    }
+}
@@ -42,6 +42,8 @@ public class Ratings implements Serializable {
     // Metodi get e set
     public static int getnCategories() { return N_CATEGORIES; }
 
+    public double[] toArray() { return new double[]{location, cleanliness, service, value}; }
+
 
     @Override
     public String toString() {
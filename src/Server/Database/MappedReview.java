@@ -0,0 +1,74 @@
+package Server.Database;
+
+import java.io.Serial;
+import java.util.LinkedList;
+import java.util.List;
+
+
+/**
+ * <p align="justify">
+ *     La classe {@code MappedReview} rappresenta una recensione memorizzata in uno slot di un {@link ReviewStore}: i
+ *     dati della recensione non sono copiati nello heap ma letti dall'archivio a ogni accesso.
+ * </p>
+ */
+class MappedReview extends Review {
+    @Serial
+    private static final long serialVersionUID = 3904412735718329961L;
+
+    /** Archivio della recensione */
+    private final transient ReviewStore store;
+    /** Posizione dello slot della recensione nell'archivio */
+    private final long slot;
+
+    MappedReview(ReviewStore store, long slot) {
+        this.store = store;
+        this.slot = slot;
+    }
+
+
+    // Metodi get
+    @Override
+    public int getId() { return store.id(slot); }
+
+    @Override
+    public String getAuthor() { return store.author(slot); }
+
+    @Override
+    public String getHotel() { return store.hotel(slot); }
+
+    @Override
+    public double getRate() { return store.rate(slot); }
+
+    @Override
+    public double[] getRatings() { return store.ratings(slot); }
+
+    @Override
+    public synchronized List<String> getUpvotes() { return new LinkedList<>(store.upvotes(slot)); }
+
+    @Override
+    public synchronized int getnUpvotes() { return store.count(slot); }
+
+    @Override
+    List<String> upvoters() { return store.upvotes(slot); }
+
+    @Override
+    public long getTime() { return store.time(slot); }
+
+
+    // Altri metodi
+    @Override
+    public synchronized boolean addUpvote(String session) {
+        if (store.upvotes(slot).contains(session)) return false;
+        store.addUpvote(slot, session);
+        return true;
+    }
+
+    /**
+     * Sostituisce la recensione con una copia nello heap nella serializzazione, che non conserva l'archivio.
+     * @return la copia della recensione
+     */
+    @Serial
+    private Object writeReplace() {
+        return new Review(getId(), getAuthor(), getHotel(), getRate(), getRatings(), getTime(), upvoters());
+    }
+}
@@ -0,0 +1,176 @@
+package Server.Database;
+
+import java.util.Arrays;
+
+
+/**
+ * <p align="justify">
+ *     La classe {@code PostIndex} rappresenta un indice del tempo di pubblicazione dell'ultima recensione di ciascun
+ *     utente per ciascun hotel, realizzato come tabella hash a indirizzamento aperto con chiavi e valori di tipo
+ *     {@code long} (senza boxing).
+ * </p> <p align="justify">
+ *     La chiave è composta dall'identificatore dell'utente nei 32 bit più significativi e da quello dell'hotel nei 32
+ *     bit meno significativi. L'indice è suddiviso in {@value #SEGMENTS} segmenti, ciascuno con la propria tabella,
+ *     scelti in base ai bit più significativi del valore hash della chiave. Le collisioni vengono risolte con
+ *     scansione lineare; quando la tabella di un segmento è piena per metà, la sua capacità viene raddoppiata.
+ * </p> <p align="justify">
+ *     I metodi sono sincronizzati sul segmento della chiave, per cui le operazioni su segmenti diversi non si bloccano
+ *     a vicenda, indipendentemente dalle altre strutture dati del server.
+ * </p>
+ */
+public class PostIndex {
+    /** Numero di segmenti, potenza di 2 */
+    private static final int SEGMENTS = 16;
+    /** Bit del valore hash non utilizzati per scegliere il segmento */
+    private static final int SHIFT = Integer.SIZE - Integer.numberOfTrailingZeros(SEGMENTS);
+    /** Capacità iniziale della tabella di ciascun segmento */
+    private static final int CAPACITY = 64;
+    /** Chiave delle posizioni libere (le chiavi valide non sono mai negative) */
+    private static final long EMPTY = -1L;
+
+    /** Segmenti dell'indice */
+    private final Segment[] segments;
+
+    public PostIndex() {
+        segments = new Segment[SEGMENTS];
+        for (int i = 0; i < SEGMENTS; i++) segments[i] = new Segment();
+    }
+
+
+    /**
+     * <p align="justify">
+     *     Registra la pubblicazione di una recensione dell'utente per l'hotel indicati al tempo indicato, se è più
+     *     recente di quella registrata in precedenza.
+     * </p>
+     * @param user l'identificatore dell'utente
+     * @param hotel l'identificatore dell'hotel
+     * @param time il tempo di pubblicazione in millisecondi
+     */
+    public void put(int user, int hotel, long time) {
+        long key = key(user, hotel);
+        segments[hash(key) >>> SHIFT].put(key, time);
+    }
+
+    /**
+     * <p align="justify">
+     *     Verifica se l'utente indicato può pubblicare una recensione per l'hotel indicato, ovvero se dalla sua ultima
+     *     recensione per lo stesso hotel è trascorso il tempo indicato. In caso affermativo registra la pubblicazione
+     *     al tempo corrente, in un'unica operazione atomica.
+     * </p>
+     * @param user l'identificatore dell'utente
+     * @param hotel l'identificatore dell'hotel
+     * @param curr_time il tempo corrente in millisecondi
+     * @param timeout il tempo in millisecondi che deve trascorrere tra due recensioni
+     * @return il tempo in millisecondi da attendere per pubblicare la recensione, {@code 0L} se è stata registrata
+     */
+    public long tryPost(int user, int hotel, long curr_time, long timeout) {
+        long key = key(user, hotel);
+        return segments[hash(key) >>> SHIFT].tryPost(key, curr_time, timeout);
+    }
+
+    /**
+     * <p align="justify">
+     *     Annulla la pubblicazione registrata con {@link #tryPost(int, int, long, long)} al tempo indicato, se non è
+     *     stata sostituita da una più recente, così che l'utente possa pubblicare subito una nuova recensione per lo
+     *     stesso hotel.
+     * </p>
+     * @param user l'identificatore dell'utente
+     * @param hotel l'identificatore dell'hotel
+     * @param time il tempo in millisecondi della pubblicazione da annullare
+     * @param timeout il tempo in millisecondi che deve trascorrere tra due recensioni
+     */
+    public void release(int user, int hotel, long time, long timeout) {
+        long key = key(user, hotel);
+        segments[hash(key) >>> SHIFT].release(key, time, timeout);
+    }
+
+
+    // Altri metodi
+    private static long key(int user, int hotel) {
+        return ((long) user << 32) | (hotel & 0xFFFFFFFFL);
+    }
+
+    private static int hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+
+    /**
+     * <p align="justify">
+     *     La classe {@code Segment} rappresenta un segmento dell'indice, con la propria tabella.
+     * </p>
+     */
+    private static class Segment {
+        /** Chiavi (utente, hotel) */
+        private long[] keys = new long[CAPACITY];
+        /** Tempi di pubblicazione in millisecondi */
+        private long[] values = new long[CAPACITY];
+        /** Numero di coppie (utente, hotel) indicizzate */
+        private int size = 0;
+
+        Segment() {
+            Arrays.fill(keys, EMPTY);
+        }
+
+        synchronized void put(long key, long time) {
+            int i = find(key);
+            if (keys[i] == EMPTY || values[i] < time) insert(i, key, time);
+        }
+
+        synchronized long tryPost(long key, long curr_time, long timeout) {
+            int i = find(key);
+            if (keys[i] != EMPTY && (curr_time - values[i]) < timeout) return timeout - (curr_time - values[i]);
+            insert(i, key, curr_time);
+            return 0L;
+        }
+
+        synchronized void release(long key, long time, long timeout) {
+            int i = find(key);
+            if (keys[i] == key && values[i] == time) values[i] = time - timeout;
+        }
+
+        /**
+         * Restituisce la posizione della chiave indicata o, se non è presente, la posizione libera in cui inserirla.
+         * @param key la chiave
+         * @return la posizione nella tabella
+         */
+        private int find(long key) {
+            int mask = keys.length - 1;
+            int i = hash(key) & mask;
+            while (keys[i] != EMPTY && keys[i] != key) i = (i + 1) & mask;
+            return i;
+        }
+
+        /**
+         * Assegna il tempo indicato alla chiave nella posizione indicata, ottenuta con {@link #find(long)}.
+         * @param i la posizione
+         * @param key la chiave
+         * @param time il tempo in millisecondi
+         */
+        private void insert(int i, long key, long time) {
+            if (keys[i] != EMPTY) {
+                values[i] = time;
+                return;
+            }
+            keys[i] = key;
+            values[i] = time;
+            if (2 * ++size > keys.length) resize();
+        }
+
+        /**
+         * Raddoppia la capacità della tabella, reinserendo le chiavi.
+         */
+        private void resize() {
+            long[] keys = this.keys, values = this.values;
+            this.keys = new long[keys.length * 2];
+            this.values = new long[values.length * 2];
+            Arrays.fill(this.keys, EMPTY);
+            for (int i = 0; i < keys.length; i++) if (keys[i] != EMPTY) {
+                int j = find(keys[i]);
+                this.keys[j] = keys[i];
+                this.values[j] = values[i];
+            }
+        }
+    }
+}
@@ -1,7 +1,11 @@
 package Server.Database;
 
 import Server.Database.Hotel.Ratings;
+import com.fasterxml.jackson.annotation.JsonProperty;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.io.Serial;
 import java.io.Serializable;
 import java.text.ParseException;
@@ -21,6 +25,9 @@ public class Review implements Serializable {
     private static final long serialVersionUID = 7812427507218029179L;
     /** Formato testuale per la data */
     private static final String DATE_FORMAT = "EEE dd MMMMM yyyy HH:mm:ss z";
+    /** Formattatore della data per ciascun thread (SimpleDateFormat non è thread-safe) */
+    private static final ThreadLocal<SimpleDateFormat> FORMATTER =
+            ThreadLocal.withInitial(() -> new SimpleDateFormat(DATE_FORMAT));
     /** Campi significativi della classe */
     private static final int N_FIELDS = 7;
 
@@ -34,10 +41,10 @@ public class Review implements Serializable {
     private double rate;
     /** Punteggi per categoria (ratings) */
     private Ratings ratings;
-    /** Data di pubblicazione */
-    private String date;
-    /** Utenti o guests che hanno consigliato la recensione */
-    private List<String> upvotes;
+    /** Data di pubblicazione in millisecondi */
+    private long time;
+    /** Utenti o guests che hanno consigliato la recensione, sostituita a ogni voto e mai modificata */
+    private volatile List<String> upvotes;
 
     public Review(String username, String hotel, double rate, double[] ratings) {
         // Assegno alle variabili i parametri
@@ -48,10 +55,46 @@ public class Review implements Serializable {
         this.ratings = new Ratings(ratings);
 
         // Assegno e inizializzo le altre variabili
-        date = new SimpleDateFormat(DATE_FORMAT).format(new Date(System.currentTimeMillis()));
+        time = System.currentTimeMillis();
         upvotes = new LinkedList<>();
     }
 
+    /**
+     * <p align="justify">
+     *     Ricostruisce la recensione con l'identificatore e la data di pubblicazione indicati, senza voti. Viene
+     *     invocato solo durante il ripristino delle recensioni registrate sul log.
+     * </p>
+     * @param id l'identificatore della recensione
+     * @param username l'autore
+     * @param hotel l'hotel recensito
+     * @param rate il punteggio sintetico
+     * @param ratings i punteggi per categoria
+     * @param time la data di pubblicazione in millisecondi
+     */
+    public Review(int id, String username, String hotel, double rate, double[] ratings, long time) {
+        this(id, username, hotel, rate, ratings, time, new LinkedList<>());
+    }
+
+    /**
+     * Ricostruisce la recensione con i dati e i voti indicati.
+     * @param id l'identificatore della recensione
+     * @param username l'autore
+     * @param hotel l'hotel recensito
+     * @param rate il punteggio sintetico
+     * @param ratings i punteggi per categoria
+     * @param time la data di pubblicazione in millisecondi
+     * @param upvotes i voti, che non devono essere modificati in seguito
+     */
+    Review(int id, String username, String hotel, double rate, double[] ratings, long time, List<String> upvotes) {
+        this.id = id;
+        this.author = username;
+        this.hotel = hotel;
+        this.rate = rate;
+        this.ratings = new Ratings(ratings);
+        this.time = time;
+        this.upvotes = upvotes;
+    }
+
     public Review() { }
 
 
@@ -66,38 +109,112 @@ public class Review implements Serializable {
 
     public double getRate() { return rate; }
 
-    public double[] getRatings() { return new double[]{Double.parseDouble(ratings.toString())}; }
+    public double[] getRatings() { return ratings.toArray(); }
 
     public synchronized List<String> getUpvotes() { return new LinkedList<>(upvotes); }
 
     public synchronized int getnUpvotes() { return upvotes.size(); }
 
-    public long getTime() {
+    /**
+     * Restituisce la lista dei voti senza copiarla, che non viene mai modificata (vedi {@link #addUpvote(String)}).
+     * @return la lista dei voti
+     */
+    List<String> upvoters() { return upvotes; }
+
+    public long getTime() { return time; }
+
+    /**
+     * <p align="justify">
+     *     Assegna la data di pubblicazione a partire dal formato testuale usato nei backup precedenti, in cui la data
+     *     era memorizzata come stringa. Viene invocato solo durante la deserializzazione di questi backup.
+     * </p>
+     * @param date la data di pubblicazione in formato testuale
+     */
+    @JsonProperty("date")
+    private void setDate(String date) {
         try {
-            return new SimpleDateFormat(DATE_FORMAT).parse(date).getTime();
+            time = FORMATTER.get().parse(date).getTime();
         } catch (ParseException ignored) {
-            return 0L;
+            time = 0L;
         }
     }
 
 
     @Override
-    public String toString() {
-        return "{" + id + "; " + author + "; " + hotel + "; " + rate + "; " + ratings.toString() + "; " + date + "; "
-                + getnUpvotes() + "; " + Arrays.toString(upvotes.toArray()) + "}";
+    public synchronized String toString() {
+        List<String> upvotes = upvoters();
+        return "{" + getId() + "; " + getAuthor() + "; " + getHotel() + "; " + getRate() + "; "
+                + Arrays.toString(getRatings()) + "; " + FORMATTER.get().format(new Date(getTime())) + "; "
+                + upvotes.size() + "; " + Arrays.toString(upvotes.toArray()) + "}";
     }
 
 
     // Altri metodi
+    /**
+     * <p align="justify">
+     *     Scrive la recensione nel formato binario dei backup, senza l'autore, che è l'utente che la contiene.
+     * </p>
+     * @param out lo stream di destinazione
+     * @throws IOException se si verifica un errore di scrittura
+     */
+    public void write(DataOutput out) throws IOException {
+        out.writeInt(getId());
+        out.writeUTF(getHotel());
+        out.writeDouble(getRate());
+        for (double rating: getRatings()) out.writeDouble(rating);
+        out.writeLong(getTime());
+        List<String> upvotes = upvoters();
+        out.writeInt(upvotes.size());
+        for (String upvote: upvotes) out.writeUTF(upvote);
+    }
+
+    /**
+     * Legge una recensione scritta nel formato binario dei backup con {@link #write(DataOutput)}.
+     * @param in lo stream di origine
+     * @param author l'autore della recensione
+     * @return la recensione letta
+     * @throws IOException se si verifica un errore di lettura
+     */
+    public static Review read(DataInput in, String author) throws IOException {
+        Review review = new Review();
+        review.id = in.readInt();
+        review.author = author;
+        review.hotel = in.readUTF();
+        review.rate = in.readDouble();
+        double[] ratings = new double[Ratings.getnCategories()];
+        for (int i = 0; i < ratings.length; i++) ratings[i] = in.readDouble();
+        review.ratings = new Ratings(ratings);
+        review.time = in.readLong();
+        int count = in.readInt();
+        List<String> upvotes = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) upvotes.add(in.readUTF());
+        review.upvotes = upvotes;
+        return review;
+    }
+
+    /**
+     * Verifica se l'utente o il guest identificato da {@code session} ha già votato questa recensione.
+     * @param session la sessione attiva corrispondente all'utente o al guest
+     * @return {@code true} se il voto è già presente, {@code false} altrimenti
+     */
+    public boolean hasUpvote(String session) { return upvoters().contains(session); }
+
     /**
      * <p align="justify">
      *     Inserisce il voto identificato da {@code session} alla lista di voti di questa recensione.
+     * </p> <p align="justify">
+     *     La lista dei voti non viene modificata ma sostituita da una copia con il nuovo voto, così che possa essere
+     *     letta senza sincronizzazione durante il backup.
      * </p>
      * @param session la sessione attiva corrispondente all'utente o al guest che vota la recensione
      * @return {@code true} se l'utente o guest non ha ancora votato la recensione, {@code false} altrimenti
      */
     public synchronized boolean addUpvote(String session) {
         if (upvotes.contains(session)) return false;
-        return upvotes.add(session);
+        List<String> upvotes = new ArrayList<>(this.upvotes.size() + 1);
+        upvotes.addAll(this.upvotes);
+        upvotes.add(session);
+        this.upvotes = upvotes;
+        return true;
     }
 }
\ No newline at end of file
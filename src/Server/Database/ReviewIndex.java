@@ -0,0 +1,121 @@
+package Server.Database;
+
+
+/**
+ * <p align="justify">
+ *     La classe {@code ReviewIndex} rappresenta un indice delle recensioni per identificatore, realizzato come tabella
+ *     hash a indirizzamento aperto con chiavi intere (senza boxing), così che una recensione possa essere reperita in
+ *     tempo costante.
+ * </p> <p align="justify">
+ *     L'indice è suddiviso in {@value #SEGMENTS} segmenti, ciascuno con la propria tabella, scelti in base ai bit più
+ *     significativi del valore hash dell'identificatore. Le collisioni vengono risolte con scansione lineare; quando la
+ *     tabella di un segmento è piena per metà, la sua capacità viene raddoppiata. Le recensioni non vengono mai rimosse.
+ * </p> <p align="justify">
+ *     I metodi sono sincronizzati sul segmento della recensione, per cui le operazioni su segmenti diversi non si
+ *     bloccano a vicenda, indipendentemente dalle altre strutture dati del server.
+ * </p>
+ */
+public class ReviewIndex {
+    /** Numero di segmenti, potenza di 2 */
+    private static final int SEGMENTS = 16;
+    /** Bit del valore hash non utilizzati per scegliere il segmento */
+    private static final int SHIFT = Integer.SIZE - Integer.numberOfTrailingZeros(SEGMENTS);
+    /** Capacità iniziale della tabella di ciascun segmento */
+    private static final int CAPACITY = 64;
+
+    /** Segmenti dell'indice */
+    private final Segment[] segments;
+
+    public ReviewIndex() {
+        segments = new Segment[SEGMENTS];
+        for (int i = 0; i < SEGMENTS; i++) segments[i] = new Segment();
+    }
+
+
+    /**
+     * Restituisce la recensione con l'identificatore indicato.
+     * @param id l'identificatore della recensione
+     * @return la recensione o {@code null} se non esiste
+     */
+    public Review get(int id) {
+        return segments[hash(id) >>> SHIFT].get(id);
+    }
+
+    /**
+     * Aggiunge all'indice la recensione indicata, sostituendo l'eventuale recensione con lo stesso identificatore.
+     * @param review la recensione
+     */
+    public void put(Review review) {
+        segments[hash(review.getId()) >>> SHIFT].put(review);
+    }
+
+
+    // Altri metodi
+    /**
+     * Inserisce la recensione indicata nella tabella indicata.
+     * @param keys gli identificatori della tabella
+     * @param values le recensioni della tabella
+     * @param review la recensione
+     * @return {@code true} se la recensione occupa una nuova posizione, {@code false} se ne ha sostituita una
+     */
+    private static boolean insert(int[] keys, Review[] values, Review review) {
+        int mask = keys.length - 1;
+        int i = hash(review.getId()) & mask;
+        for (; values[i] != null; i = (i + 1) & mask)
+            if (keys[i] == review.getId()) {
+                values[i] = review;
+                return false;
+            }
+        keys[i] = review.getId();
+        values[i] = review;
+        return true;
+    }
+
+    /**
+     * Distribuisce gli identificatori, che sono consecutivi, sull'intera tabella.
+     * @param id l'identificatore
+     * @return il valore hash
+     */
+    private static int hash(int id) {
+        int h = id * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+
+    /**
+     * <p align="justify">
+     *     La classe {@code Segment} rappresenta un segmento dell'indice, con la propria tabella.
+     * </p>
+     */
+    private static class Segment {
+        /** Identificatori delle recensioni */
+        private int[] keys = new int[CAPACITY];
+        /** Recensioni, {@code null} nelle posizioni libere */
+        private Review[] values = new Review[CAPACITY];
+        /** Numero di recensioni indicizzate */
+        private int size = 0;
+
+        synchronized Review get(int id) {
+            int mask = keys.length - 1;
+            for (int i = hash(id) & mask; values[i] != null; i = (i + 1) & mask)
+                if (keys[i] == id) return values[i];
+            return null;
+        }
+
+        synchronized void put(Review review) {
+            if (2 * (size + 1) > keys.length) resize();
+            if (insert(keys, values, review)) size++;
+        }
+
+        /**
+         * Raddoppia la capacità della tabella, reinserendo le recensioni.
+         */
+        private void resize() {
+            int[] keys = new int[this.keys.length * 2];
+            Review[] values = new Review[this.values.length * 2];
+            for (Review review: this.values) if (review != null) insert(keys, values, review);
+            this.keys = keys;
+            this.values = values;
+        }
+    }
+}
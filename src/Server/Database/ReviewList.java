@@ -0,0 +1,201 @@
+package Server.Database;
+
+import java.io.Serial;
+import java.io.Serializable;
+import java.util.*;
+
+
+/**
+ * <p align="justify">
+ *     La classe {@code ReviewList} rappresenta una lista di recensioni realizzata con un array, in cui le recensioni
+ *     sono memorizzate in ordine di pubblicazione e presentate in ordine decrescente di data (dalla più recente alla
+ *     meno recente), come una {@link LinkedList} in cui le nuove recensioni vengono inserite con
+ *     {@link #addFirst(Review)}.
+ * </p> <p align="justify">
+ *     Ogni recensione ha una posizione stabile, pari al numero di recensioni meno recenti, che non cambia con la
+ *     pubblicazione di nuove recensioni: una pagina di recensioni viene individuata da un cursore su queste posizioni
+ *     e viene reperita in tempo proporzionale alla sua dimensione, senza scorrere il resto della lista.
+ * </p> <p align="justify">
+ *     L'aggiunta in coda con {@link #add(Review)} inserisce una recensione meno recente delle altre (ad esempio durante
+ *     il caricamento dai backup) e sposta le posizioni delle recensioni già presenti.
+ * </p> <p align="justify">
+ *     Una copia della lista in un certo istante, ottenuta con {@link #snapshot()}, condivide l'array con la lista, che
+ *     viene copiato solo alla prima modifica successiva di una delle due (copy-on-write).
+ * </p> <p align="justify">
+ *     Come le altre liste, non è thread-safe.
+ * </p>
+ */
+public class ReviewList extends AbstractList<Review> implements RandomAccess, Serializable {
+    @Serial
+    private static final long serialVersionUID = 5286491300425871962L;
+    /** Capacità iniziale dell'array */
+    private static final int CAPACITY = 8;
+
+    /** Recensioni in ordine di pubblicazione, nelle posizioni da {@link #head} a {@link #tail} escluso */
+    private Review[] elements;
+    /** Posizione nell'array della recensione meno recente */
+    private int head;
+    /** Posizione nell'array successiva alla recensione più recente */
+    private int tail;
+    /** Indica se l'array è condiviso con una copia della lista */
+    private transient boolean shared;
+
+    public ReviewList() {
+        elements = new Review[CAPACITY];
+        head = tail = CAPACITY / 2;
+    }
+
+    /**
+     * Costruisce la lista delle recensioni indicate, senza copiarle, ad esempio durante il caricamento dai backup.
+     * @param reviews le recensioni in ordine di pubblicazione, dalla meno recente alla più recente
+     */
+    public ReviewList(Review[] reviews) {
+        elements = reviews;
+        head = 0;
+        tail = reviews.length;
+    }
+
+    /**
+     * Costruisce una copia della lista che condivide l'array indicato.
+     * @param elements l'array della lista
+     * @param head la posizione della recensione meno recente
+     * @param tail la posizione successiva alla recensione più recente
+     */
+    private ReviewList(Review[] elements, int head, int tail) {
+        this.elements = elements;
+        this.head = head;
+        this.tail = tail;
+        this.shared = true;
+    }
+
+
+    // Metodi della lista, in ordine decrescente di data
+    @Override
+    public Review get(int index) {
+        Objects.checkIndex(index, size());
+        return elements[tail - 1 - index];
+    }
+
+    @Override
+    public Review set(int index, Review review) {
+        Objects.checkIndex(index, size());
+        unshare();
+        Review previous = elements[tail - 1 - index];
+        elements[tail - 1 - index] = review;
+        return previous;
+    }
+
+    @Override
+    public int size() { return tail - head; }
+
+    /**
+     * Aggiunge in testa alla lista la recensione indicata, la più recente.
+     * @param review la recensione
+     */
+    public void addFirst(Review review) {
+        if (tail == elements.length) grow();
+        else unshare();
+        elements[tail++] = review;
+        modCount++;
+    }
+
+    /**
+     * Aggiunge in coda alla lista la recensione indicata, la meno recente.
+     * @param review la recensione
+     * @return {@code true}
+     */
+    @Override
+    public boolean add(Review review) {
+        if (head == 0) grow();
+        else unshare();
+        elements[--head] = review;
+        modCount++;
+        return true;
+    }
+
+
+    // Altri metodi
+    /**
+     * <p align="justify">
+     *     Restituisce una copia della lista nell'istante corrente, che non cambia con le modifiche successive della
+     *     lista, in tempo costante.
+     * </p>
+     * @return la copia della lista
+     */
+    public ReviewList snapshot() {
+        shared = true;
+        return new ReviewList(elements, head, tail);
+    }
+
+    /**
+     * <p align="justify">
+     *     Restituisce la pagina di al più {@code limit} recensioni che precedono il cursore indicato, in ordine
+     *     decrescente di data.
+     * </p>
+     * @param cursor la posizione successiva alla recensione più recente della pagina, {@link Integer#MAX_VALUE} per
+     *               partire dalla recensione più recente
+     * @param limit il numero massimo di recensioni della pagina
+     * @return la pagina di recensioni
+     * @throws IllegalArgumentException se il cursore è negativo o il numero di recensioni non è positivo
+     */
+    public Page page(int cursor, int limit) {
+        if (cursor < 0 || limit <= 0) throw new IllegalArgumentException();
+        int end = Math.min(cursor, size());
+        int start = Math.max(0, end - limit);
+        List<Review> reviews = new ArrayList<>(end - start);
+        for (int i = head + end - 1; i >= head + start; i--) reviews.add(elements[i]);
+        return new Page(reviews, start);
+    }
+
+    /**
+     * Se l'array è condiviso con una copia della lista, lo sostituisce con una sua copia prima di modificarlo.
+     */
+    private void unshare() {
+        if (!shared) return;
+        elements = elements.clone();
+        shared = false;
+    }
+
+    /**
+     * Raddoppia la capacità dell'array, lasciando lo stesso spazio libero prima e dopo le recensioni.
+     */
+    private void grow() {
+        int size = size();
+        Review[] elements = new Review[Math.max(CAPACITY, this.elements.length * 2)];
+        int head = (elements.length - size) / 2;
+        System.arraycopy(this.elements, this.head, elements, head, size);
+        this.elements = elements;
+        this.head = head;
+        this.tail = head + size;
+        this.shared = false;
+    }
+
+
+    /**
+     * <p align="justify">
+     *     La classe {@code Page} rappresenta una pagina di recensioni con il cursore della pagina successiva.
+     * </p>
+     */
+    public static class Page {
+        /** Recensioni della pagina, in ordine decrescente di data */
+        public final List<Review> reviews;
+        /** Cursore della pagina successiva, {@code 0} se non ci sono recensioni meno recenti */
+        public final int next;
+
+        Page(List<Review> reviews, int next) {
+            this.reviews = reviews;
+            this.next = next;
+        }
+
+        /**
+         * Restituisce le recensioni della pagina, una per riga.
+         * @return la stringa che rappresenta la pagina
+         */
+        @Override
+        public String toString() {
+            StringJoiner joiner = new StringJoiner("\n");
+            for (Review review: reviews) joiner.add(review.toString());
+            return joiner.toString();
+        }
+    }
+}
@@ -0,0 +1,417 @@
+package Server.Database;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+import Server.Database.Hotel.Ratings;
+
+
+/**
+ * <p align="justify">
+ *     La classe {@code ReviewStore} rappresenta un archivio delle recensioni su file mappati in memoria: ogni
+ *     recensione occupa uno slot di dimensione fissa, che dipende dal numero di categorie dei punteggi, e le parti di
+ *     dimensione variabile sono memorizzate in tabelle separate, le stringhe (autori, hotel e voti, ciascuna memorizzata una sola volta) e i
+ *     voti, una lista concatenata per recensione. Le recensioni sono rappresentate da riferimenti agli slot
+ *     ({@link MappedReview}), per cui la memoria occupata nello heap non dipende dal contenuto delle recensioni e al
+ *     riavvio le recensioni non devono essere deserializzate.
+ * </p> <p align="justify">
+ *     Le tabelle sono in sola aggiunta e vengono confermate a ogni backup con {@link #mark()} e
+ *     {@link #commit(long)}: l'intestazione conserva le dimensioni delle tabelle per gli ultimi {@value #COMMITS}
+ *     backup, con il loro numero di sequenza. Al riavvio le tabelle vengono riportate alle dimensioni confermate con
+ *     il backup letto, le modifiche successive vengono ripristinate dal log. L'intestazione conserva anche il numero
+ *     di categorie dei punteggi: se è diverso da quello corrente, le conferme vengono ignorate e l'archivio viene
+ *     ricostruito a partire dal backup.
+ * </p> <p align="justify">
+ *     Le aggiunte sono sincronizzate sull'archivio, le letture dei dati già pubblicati non richiedono sincronizzazione.
+ * </p>
+ */
+public class ReviewStore {
+    /** Directory dell'archivio all'interno della directory di backup */
+    public static final String store_dir = "reviews/";
+    /** Nomi dei file dell'archivio */
+    private static final String HEADER = "header.dat", SLOTS = "slots.dat", STRINGS = "strings.dat",
+            UPVOTES = "upvotes.dat";
+    /** Intestazione del file di intestazione */
+    private static final int MAGIC = 0x48545253; // "HTRS"
+    /** Versione del formato */
+    private static final int VERSION = 2;
+    /** Numero di conferme conservate */
+    private static final int COMMITS = 8;
+    /** Dimensione in byte di una conferma: numero di sequenza e dimensioni delle tabelle */
+    private static final int COMMIT = 4 * Long.BYTES;
+    /** Dimensione in byte dell'intestazione: formato, versione, numero di categorie, prossima conferma e conferme */
+    private static final int HEADER_SIZE = 4 * Integer.BYTES + COMMITS * COMMIT;
+
+    /** Posizioni dei campi all'interno di uno slot, i punteggi per categoria occupano la parte finale */
+    private static final int ID = 0, AUTHOR = 4, HOTEL = 8, COUNT = 12, FIRST = 16, LAST = 20, TIME = 24, RATE = 32,
+            RATINGS = 40;
+    /** Dimensione in byte di uno slot */
+    static final int SLOT = RATINGS + Ratings.getnCategories() * Double.BYTES;
+    /** Dimensione in byte di un voto: stringa e voto successivo della stessa recensione */
+    private static final int UPVOTE = 8;
+    /** Voto successivo dell'ultimo voto di una recensione */
+    private static final int NONE = -1;
+
+    /** File dell'intestazione */
+    private final FileChannel header;
+    /** Tabella degli slot delle recensioni */
+    private final Region slots;
+    /** Tabella delle stringhe */
+    private final Region strings;
+    /** Tabella dei voti */
+    private final Region upvotes;
+    /** Posizioni delle stringhe nella tabella, per le aggiunte */
+    private final Map<String, Integer> offsets; // lista di coppie <stringa, posizione>
+    /** Stringhe per posizione nella tabella, per le letture */
+    private final Map<Integer, String> names; // lista di coppie <posizione, stringa>
+    /** Conferme: numero di sequenza e dimensioni delle tabelle */
+    private final long[][] commits;
+    /** Prossima conferma da sovrascrivere */
+    private int next;
+    /** Dimensioni delle tabelle segnate con {@link #mark()} */
+    private long[] mark;
+
+    /**
+     * Apre l'archivio nella directory indicata, creandolo se non esiste.
+     * @param directory la directory dell'archivio
+     * @throws IOException se non è possibile aprire i file dell'archivio
+     */
+    public ReviewStore(File directory) throws IOException {
+        if (!directory.exists()) directory.mkdirs();
+        this.header = FileChannel.open(new File(directory, HEADER).toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.slots = new Region(new File(directory, SLOTS));
+        this.strings = new Region(new File(directory, STRINGS));
+        this.upvotes = new Region(new File(directory, UPVOTES));
+        this.offsets = new HashMap<>();
+        this.names = new ConcurrentHashMap<>();
+        this.commits = new long[COMMITS][];
+        for (int i = 0; i < COMMITS; i++) commits[i] = new long[]{-1, 0, 0, 0};
+        this.next = 0;
+
+        // Leggo le conferme dall'intestazione, se è valida e gli slot hanno la dimensione corrente
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE);
+        while (buffer.hasRemaining() && header.read(buffer, buffer.position()) > 0);
+        buffer.flip();
+        if (buffer.remaining() == HEADER_SIZE && buffer.getInt() == MAGIC && buffer.getInt() == VERSION
+                && buffer.getInt() == Ratings.getnCategories()) {
+            next = buffer.getInt();
+            for (long[] commit: commits) for (int i = 0; i < commit.length; i++) commit[i] = buffer.getLong();
+        }
+    }
+
+
+    // Metodi per il caricamento e il backup
+    /**
+     * <p align="justify">
+     *     Riporta le tabelle alle dimensioni confermate con il backup indicato e restituisce le recensioni
+     *     dell'archivio, in ordine di aggiunta. Se il backup indicato non è stato confermato, svuota l'archivio.
+     * </p> <p align="justify">
+     *     I voti aggiunti dopo la conferma a recensioni già confermate vengono scollegati dalle liste dei voti.
+     * </p>
+     * @param sequence il numero di sequenza del backup letto
+     * @param copy {@code true} per restituire copie delle recensioni nello heap, {@code false} per restituire i
+     *             riferimenti agli slot
+     * @return le recensioni dell'archivio o {@code null} se il backup indicato non è stato confermato
+     */
+    public synchronized List<Review> restore(long sequence, boolean copy) {
+        long[] commit = null;
+        for (long[] c: commits) if (c[0] == sequence) commit = c;
+        slots.size = (commit != null)? commit[1] : 0;
+        strings.size = (commit != null)? commit[2] : 0;
+        upvotes.size = (commit != null)? commit[3] : 0;
+        offsets.clear();
+        names.clear();
+        if (commit == null) return null;
+
+        // Ricostruisco gli indici delle stringhe
+        for (long offset = strings.first(Integer.BYTES); offset < strings.size; ) {
+            int length = strings.getInt(offset);
+            if (length < 0) { // spazio inutilizzato alla fine di un blocco
+                offset = Region.align(offset);
+                continue;
+            }
+            byte[] bytes = new byte[length];
+            strings.chunk(offset).get(strings.position(offset) + Integer.BYTES, bytes);
+            String string = new String(bytes, StandardCharsets.UTF_8);
+            offsets.put(string, (int) offset);
+            names.put((int) offset, string);
+            offset = strings.first(offset + Integer.BYTES + length, Integer.BYTES);
+        }
+
+        List<Review> reviews = new ArrayList<>();
+        for (long slot = slots.first(SLOT); slot < slots.size; slot = slots.first(slot + SLOT, SLOT)) {
+            // Scollego i voti aggiunti dopo la conferma, la lista si interrompe al primo voto non confermato
+            if (index(upvotes.size) <= slots.getInt(slot + LAST)) repair(slot);
+            MappedReview review = new MappedReview(this, slot);
+            reviews.add((copy)? new Review(review.getId(), review.getAuthor(), review.getHotel(), review.getRate(),
+                    review.getRatings(), review.getTime(), review.upvoters()) : review);
+        }
+        return reviews;
+    }
+
+    /**
+     * Segna le dimensioni correnti delle tabelle, da confermare con {@link #commit(long)} una volta salvato il backup.
+     */
+    public synchronized void mark() {
+        mark = new long[]{slots.size, strings.size, upvotes.size};
+    }
+
+    /**
+     * <p align="justify">
+     *     Sincronizza le tabelle sul disco e conferma le dimensioni segnate con {@link #mark()} per il backup indicato.
+     * </p>
+     * @param sequence il numero di sequenza del backup
+     * @throws IOException se non è possibile scrivere l'intestazione
+     */
+    public void commit(long sequence) throws IOException {
+        long[] mark;
+        synchronized (this) {
+            mark = this.mark;
+        }
+        if (mark == null) return;
+        slots.force();
+        strings.force();
+        upvotes.force();
+        synchronized (this) {
+            commits[next] = new long[]{sequence, mark[0], mark[1], mark[2]};
+            next = (next + 1) % COMMITS;
+            ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE);
+            buffer.putInt(MAGIC).putInt(VERSION).putInt(Ratings.getnCategories()).putInt(next);
+            for (long[] commit: commits) for (long value: commit) buffer.putLong(value);
+            buffer.flip();
+            while (buffer.hasRemaining()) header.write(buffer, buffer.position());
+            header.force(true);
+        }
+    }
+
+
+    // Metodi per l'aggiunta delle recensioni e dei voti
+    /**
+     * Aggiunge all'archivio la recensione indicata, con i suoi voti.
+     * @param review la recensione
+     * @return il riferimento allo slot della recensione
+     */
+    public synchronized Review add(Review review) {
+        long slot = slots.allocate(SLOT);
+        slots.putInt(slot + ID, review.getId());
+        slots.putInt(slot + AUTHOR, intern(review.getAuthor()));
+        slots.putInt(slot + HOTEL, intern(review.getHotel()));
+        slots.putInt(slot + COUNT, 0);
+        slots.putInt(slot + FIRST, NONE);
+        slots.putInt(slot + LAST, NONE);
+        slots.putLong(slot + TIME, review.getTime());
+        slots.putDouble(slot + RATE, review.getRate());
+        double[] ratings = review.getRatings();
+        for (int i = 0; i < ratings.length; i++) slots.putDouble(slot + RATINGS + (long) i * Double.BYTES, ratings[i]);
+        for (String upvote: review.upvoters()) addUpvote(slot, upvote);
+        return new MappedReview(this, slot);
+    }
+
+    /**
+     * Aggiunge in coda alla lista dei voti della recensione indicata il voto indicato.
+     * @param slot lo slot della recensione
+     * @param session il voto
+     */
+    synchronized void addUpvote(long slot, String session) {
+        long offset = upvotes.allocate(UPVOTE);
+        upvotes.putInt(offset, intern(session));
+        upvotes.putInt(offset + Integer.BYTES, NONE);
+        // Collego il voto alla lista e solo dopo incremento il numero di voti
+        int last = slots.getInt(slot + LAST);
+        if (last == NONE) slots.putInt(slot + FIRST, index(offset));
+        else upvotes.putInt((long) last * UPVOTE + Integer.BYTES, index(offset));
+        slots.putInt(slot + LAST, index(offset));
+        slots.putInt(slot + COUNT, slots.getInt(slot + COUNT) + 1);
+    }
+
+    /**
+     * Restituisce la posizione nella tabella delle stringhe della stringa indicata, aggiungendola se non è presente.
+     * @param string la stringa
+     * @return la posizione della stringa
+     */
+    private int intern(String string) {
+        Integer offset = offsets.get(string);
+        if (offset != null) return offset;
+        byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+        long position = strings.allocate(Integer.BYTES + bytes.length);
+        if (position > Integer.MAX_VALUE) throw new UncheckedIOException(new IOException("string table is full"));
+        strings.chunk(position).put(strings.position(position) + Integer.BYTES, bytes);
+        strings.putInt(position, bytes.length);
+        offsets.put(string, (int) position);
+        names.put((int) position, string);
+        return (int) position;
+    }
+
+    /**
+     * Ricostruisce la lista dei voti della recensione indicata con i soli voti confermati.
+     * @param slot lo slot della recensione
+     */
+    private void repair(long slot) {
+        int limit = index(upvotes.size), count = 0, last = NONE;
+        int upvote = slots.getInt(slot + FIRST);
+        if (upvote >= limit) slots.putInt(slot + FIRST, upvote = NONE);
+        while (upvote != NONE) {
+            count++;
+            last = upvote;
+            upvote = upvotes.getInt((long) upvote * UPVOTE + Integer.BYTES);
+            if (upvote >= limit) {
+                upvotes.putInt((long) last * UPVOTE + Integer.BYTES, NONE);
+                upvote = NONE;
+            }
+        }
+        slots.putInt(slot + LAST, last);
+        slots.putInt(slot + COUNT, count);
+    }
+
+    private static int index(long offset) { return (int) (offset / UPVOTE); }
+
+
+    // Metodi per la lettura degli slot (vedi MappedReview)
+    int id(long slot) { return slots.getInt(slot + ID); }
+
+    String author(long slot) { return names.get(slots.getInt(slot + AUTHOR)); }
+
+    String hotel(long slot) { return names.get(slots.getInt(slot + HOTEL)); }
+
+    long time(long slot) { return slots.getLong(slot + TIME); }
+
+    double rate(long slot) { return slots.getDouble(slot + RATE); }
+
+    double[] ratings(long slot) {
+        double[] ratings = new double[Ratings.getnCategories()];
+        for (int i = 0; i < ratings.length; i++) ratings[i] = slots.getDouble(slot + RATINGS + (long) i * Double.BYTES);
+        return ratings;
+    }
+
+    int count(long slot) { return slots.getInt(slot + COUNT); }
+
+    /**
+     * Restituisce i voti della recensione indicata, in ordine di aggiunta.
+     * @param slot lo slot della recensione
+     * @return la lista dei voti
+     */
+    List<String> upvotes(long slot) {
+        int count = slots.getInt(slot + COUNT);
+        List<String> upvotes = new ArrayList<>(count);
+        int upvote = slots.getInt(slot + FIRST);
+        for (int i = 0; i < count && upvote != NONE; i++) {
+            long offset = (long) upvote * UPVOTE;
+            upvotes.add(names.get(this.upvotes.getInt(offset)));
+            upvote = this.upvotes.getInt(offset + Integer.BYTES);
+        }
+        return upvotes;
+    }
+
+
+    /**
+     * <p align="justify">
+     *     La classe {@code Region} rappresenta una tabella in sola aggiunta su un file mappato in memoria a blocchi di
+     *     {@value #CHUNK} byte. Un elemento non è mai diviso tra due blocchi: se non c'è spazio sufficiente alla fine
+     *     di un blocco, viene aggiunto all'inizio del successivo.
+     * </p>
+     */
+    private static final class Region {
+        /** Logaritmo in base 2 della dimensione dei blocchi */
+        private static final int CHUNK_BITS = 26;
+        /** Dimensione in byte dei blocchi */
+        private static final int CHUNK = 1 << CHUNK_BITS;
+
+        /** Canale del file */
+        private final FileChannel channel;
+        /** Blocchi mappati in memoria, sostituito a ogni nuovo blocco */
+        private volatile MappedByteBuffer[] chunks;
+        /** Dimensione in byte della tabella */
+        private long size;
+
+        Region(File file) throws IOException {
+            this.channel = FileChannel.open(file.toPath(),
+                    StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            this.chunks = new MappedByteBuffer[0];
+            this.size = 0;
+            map((channel.size() + CHUNK - 1) >>> CHUNK_BITS);
+        }
+
+        /**
+         * Riserva lo spazio per un nuovo elemento della dimensione indicata.
+         * @param length la dimensione in byte dell'elemento
+         * @return la posizione dell'elemento
+         */
+        long allocate(int length) {
+            long offset = first(size, length);
+            // Segno lo spazio inutilizzato alla fine del blocco, se c'è spazio per il segno
+            if (offset != size && CHUNK - position(size) >= Integer.BYTES) putInt(size, -1);
+            try {
+                map(((offset + length - 1) >>> CHUNK_BITS) + 1);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            size = offset + length;
+            return offset;
+        }
+
+        /**
+         * Restituisce la prima posizione a partire da quella indicata in cui un elemento della dimensione indicata
+         * non è diviso tra due blocchi.
+         * @param offset la posizione
+         * @param length la dimensione in byte dell'elemento
+         * @return la posizione dell'elemento
+         */
+        long first(long offset, int length) {
+            return (CHUNK - position(offset) >= length)? offset : align(offset);
+        }
+
+        long first(int length) { return first(0, length); }
+
+        /**
+         * Restituisce la posizione iniziale del blocco successivo a quello della posizione indicata.
+         * @param offset la posizione
+         * @return la posizione iniziale del blocco successivo
+         */
+        static long align(long offset) { return ((offset >>> CHUNK_BITS) + 1) << CHUNK_BITS; }
+
+        /**
+         * Mappa in memoria i blocchi mancanti fino al numero di blocchi indicato, estendendo il file.
+         * @param count il numero di blocchi
+         * @throws IOException se non è possibile mappare il file
+         */
+        private void map(long count) throws IOException {
+            if (count <= chunks.length) return;
+            MappedByteBuffer[] chunks = Arrays.copyOf(this.chunks, (int) count);
+            for (int i = this.chunks.length; i < count; i++)
+                chunks[i] = channel.map(FileChannel.MapMode.READ_WRITE, (long) i << CHUNK_BITS, CHUNK);
+            this.chunks = chunks;
+        }
+
+        MappedByteBuffer chunk(long offset) { return chunks[(int) (offset >>> CHUNK_BITS)]; }
+
+        int position(long offset) { return (int) (offset & (CHUNK - 1)); }
+
+        int getInt(long offset) { return chunk(offset).getInt(position(offset)); }
+
+        long getLong(long offset) { return chunk(offset).getLong(position(offset)); }
+
+        double getDouble(long offset) { return chunk(offset).getDouble(position(offset)); }
+
+        void putInt(long offset, int value) { chunk(offset).putInt(position(offset), value); }
+
+        void putLong(long offset, long value) { chunk(offset).putLong(position(offset), value); }
+
+        void putDouble(long offset, double value) { chunk(offset).putDouble(position(offset), value); }
+
+        /**
+         * Sincronizza sul disco i blocchi mappati in memoria.
+         */
+        void force() {
+            for (MappedByteBuffer chunk: chunks) chunk.force();
+        }
+    }
+}
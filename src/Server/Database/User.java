@@ -3,9 +3,14 @@ package Server.Database;
 import static Server.Database.User.Badge.*;
 import static Server.HOTELIERServer.setnUsers;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.io.Serial;
 import java.io.Serializable;
 import java.util.*;
+import java.util.function.Predicate;
+import java.util.function.UnaryOperator;
 
 
 /**
@@ -24,7 +29,7 @@ public class User implements Serializable {
     /** Password */
     private String password;
     /** Recensioni pubblicate dall'utente */
-    private LinkedList<Review> reviews; // in ordine decrescente (dalla più recente alla meno recente)
+    private ReviewList reviews; // in ordine decrescente (dalla più recente alla meno recente)
     /** Badges ottenuti dall'utente */
     private LinkedList<String> badges; // in ordine decrescente (dal più recente/livello elevato al meno recente/basso)
 
@@ -35,19 +40,58 @@ public class User implements Serializable {
         this.password = password;
 
         // Assegno e inizializzo le altre variabili
-        reviews = new LinkedList<>();
+        reviews = new ReviewList();
+        badges = new LinkedList<>();
+    }
+
+    /**
+     * <p align="justify">
+     *     Ricostruisce l'utente con l'identificatore indicato, senza recensioni. Viene invocato solo durante il
+     *     ripristino delle registrazioni registrate sul log.
+     * </p>
+     * @param id l'identificatore dell'utente
+     * @param username il nome utente
+     * @param password la password
+     */
+    public User(int id, String username, String password) {
+        this.id = id;
+        this.username = username;
+        this.password = password;
+        reviews = new ReviewList();
         badges = new LinkedList<>();
     }
 
     public User() { }
 
+    /**
+     * Costruisce una copia dell'utente indicato con la lista di recensioni indicata.
+     * @param user l'utente da copiare
+     * @param reviews la copia della lista di recensioni
+     */
+    private User(User user, ReviewList reviews) {
+        this.id = user.id;
+        this.username = user.username;
+        this.password = user.password;
+        this.reviews = reviews;
+        this.badges = new LinkedList<>(user.badges);
+    }
+
 
     // Metodi get
     public int getId() { return id; }
 
     public String getUsername() { return username; }
 
-    public synchronized List<Review> getReviews() { return new LinkedList<>(reviews); }
+    public synchronized List<Review> getReviews() { return new ArrayList<>(reviews); }
+
+    /**
+     * Restituisce una pagina delle recensioni pubblicate da questo utente, in ordine decrescente di data.
+     * @param cursor il cursore della pagina, {@link Integer#MAX_VALUE} per la prima pagina
+     * @param limit il numero massimo di recensioni della pagina
+     * @return la pagina di recensioni
+     * @see ReviewList#page(int, int)
+     */
+    public synchronized ReviewList.Page getReviews(int cursor, int limit) { return reviews.page(cursor, limit); }
 
     /**
      * <p align="justify">
@@ -87,6 +131,93 @@ public class User implements Serializable {
         updateBadges();
     }
 
+    /**
+     * <p align="justify">
+     *     Restituisce una copia dell'utente nell'istante corrente, che non cambia con le modifiche successive, per il
+     *     backup. La lista di recensioni viene copiata solo alla prima modifica successiva (vedi
+     *     {@link ReviewList#snapshot()}) e le recensioni sono condivise con l'utente.
+     * </p>
+     * @param reviews {@code true} per includere le recensioni, {@code false} se sono salvate separatamente (vedi
+     *                {@link ReviewStore})
+     * @return la copia dell'utente
+     */
+    public synchronized User snapshot(boolean reviews) {
+        return new User(this, (reviews)? this.reviews.snapshot() : new ReviewList());
+    }
+
+    /**
+     * <p align="justify">
+     *     Aggiunge la recensione indicata, già pubblicata, in testa alla lista di recensioni di questo utente, senza
+     *     aggiornare i badge. Viene invocato solo durante il caricamento delle recensioni, in ordine di pubblicazione.
+     * </p>
+     * @param review la recensione pubblicata
+     */
+    public synchronized void restoreReview(Review review) {
+        reviews.addFirst(review);
+    }
+
+    /**
+     * <p align="justify">
+     *     Sostituisce ciascuna recensione di questo utente con il risultato dell'operazione indicata, dalla meno
+     *     recente alla più recente.
+     * </p>
+     * @param operator l'operazione da applicare alle recensioni
+     */
+    public synchronized void replaceReviews(UnaryOperator<Review> operator) {
+        for (int i = reviews.size() - 1; i >= 0; i--) reviews.set(i, operator.apply(reviews.get(i)));
+    }
+
+    /**
+     * <p align="justify">
+     *     Rimuove le recensioni di questo utente che soddisfano la condizione indicata e ricalcola i badge in base alle
+     *     recensioni rimaste. Viene invocato solo durante il caricamento delle recensioni.
+     * </p>
+     * @param filter la condizione delle recensioni da rimuovere
+     * @return il numero di recensioni rimosse
+     */
+    public synchronized int removeReviews(Predicate<Review> filter) {
+        ReviewList kept = new ReviewList();
+        for (int i = reviews.size() - 1; i >= 0; i--) if (!filter.test(reviews.get(i))) kept.addFirst(reviews.get(i));
+        int removed = reviews.size() - kept.size();
+        if (removed == 0) return 0;
+        reviews = kept;
+        // Assegno i badge dei livelli raggiunti con le recensioni rimaste, in ordine decrescente di livello
+        badges.clear();
+        for (Badge badge: Badge.values()) if (kept.size() >= badge.min) badges.addFirst(badge.badge);
+        return removed;
+    }
+
+    /**
+     * Scrive l'utente e le recensioni da questo pubblicate nel formato binario dei backup.
+     * @param out lo stream di destinazione
+     * @throws IOException se si verifica un errore di scrittura
+     */
+    public synchronized void write(DataOutput out) throws IOException {
+        out.writeInt(id);
+        out.writeUTF(username);
+        out.writeUTF(password);
+        out.writeInt(badges.size());
+        for (String badge: badges) out.writeUTF(badge);
+        out.writeInt(reviews.size());
+        for (Review review: reviews) review.write(out);
+    }
+
+    /**
+     * Legge un utente scritto nel formato binario dei backup con {@link #write(DataOutput)}.
+     * @param in lo stream di origine
+     * @return l'utente letto
+     * @throws IOException se si verifica un errore di lettura
+     */
+    public static User read(DataInput in) throws IOException {
+        User user = new User(in.readInt(), in.readUTF(), in.readUTF());
+        int badges = in.readInt();
+        for (int i = 0; i < badges; i++) user.badges.add(in.readUTF());
+        int reviews = in.readInt();
+        // Le recensioni sono scritte in ordine decrescente di data, le aggiungo in coda
+        for (int i = 0; i < reviews; i++) user.reviews.add(Review.read(in, user.username));
+        return user;
+    }
+
     /**
      * <p align="justify">
      *     Aggiorna i badge di questo utente in base al numero di recensioni pubblicate.
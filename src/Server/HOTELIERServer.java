@@ -3,14 +3,13 @@ package Server;
 import MyExceptions.*;
 import Server.Database.*;
 import Server.Database.Hotel.*;
+import Server.Message.Request.Method;
 import Client.CallbackHOTELIERClient;
 
 import com.fasterxml.jackson.annotation.JsonAutoDetect;
 import com.fasterxml.jackson.annotation.PropertyAccessor;
-import com.fasterxml.jackson.core.JsonFactory;
-import com.fasterxml.jackson.core.JsonParser;
-import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
 
 import java.io.*;
 import java.rmi.AlreadyBoundException;
@@ -20,6 +19,11 @@ import java.rmi.server.RemoteServer;
 import java.rmi.server.UnicastRemoteObject;
 import java.text.SimpleDateFormat;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
 
 
 /**
@@ -32,75 +36,127 @@ import java.util.*;
  * </p>
  */
 public class HOTELIERServer extends RemoteServer implements RMIHOTELIERServer, HOTELIERServerInterface {
-    private static int N_USERS = 0; // record di tipo User
-    private static int N_REVIEWS = 0; // record di tipo Review
+    private static final AtomicInteger N_USERS = new AtomicInteger(); // record di tipo User
+    private static final AtomicInteger N_REVIEWS = new AtomicInteger(); // record di tipo Review
 
     /** Struttura dati per gli utenti */
     private final Map<String, User> users; // lista di coppie <nome utente, utente>
     /** Struttura dati per gli hotels */
     private final Map<String, Hotel> hotels; // lista di coppie <nome hotel, hotel>
     /** Struttura dati per le recensioni in base all'hotel */
-    private final Map<String, LinkedList<Review>> reviews; // lista di coppie <nome hotel, lista di recensioni>
+    private final Map<String, ReviewList> reviews; // lista di coppie <nome hotel, lista di recensioni>
+    /** Struttura dati per le recensioni in base all'identificatore */
+    private final ReviewIndex reviewIndex;
+    /** Struttura dati per il tempo di pubblicazione dell'ultima recensione di ciascun utente per ciascun hotel */
+    private final PostIndex postIndex;
     /** Struttura dati per le classifiche locali di hotels per città */
     private final Map<String, List<Hotel>> localRanking; // lista di coppie <nome città, lista di hotel>
+    /** Struttura dati per le classifiche locali pubblicate per le letture, sostituite a ogni aggiornamento */
+    private final Map<String, RankingSnapshot> snapshots; // lista di coppie <nome città, classifica>
+    /** Risposte alle richieste di sola lettura, invalidate quando cambiano i dati su cui si basano */
+    private final ReplyCache replyCache;
+    /** Struttura dati per gli indici dei nomi degli hotel per città */
+    private final Map<String, NameIndex> nameIndex; // lista di coppie <nome città, indice dei nomi>
+    /** Aggiornamento incrementale dei ranking, null se vengono ricalcolati per intero */
+    private final IncrementalRanking incrementalRanking;
     /** Struttura dati per i client registrati al servizio di notifica per le città di interesse */
-    private final Map<CallbackHOTELIERClient, List<String>> clients;
-    // lista di coppie <client registrato per callback, città di interesse>
-    /** Utenti loggati/online */
-    private final List<String> onlineUsers; // lista degli utenti che hanno effettuato l'accesso
+    private final Map<CallbackHOTELIERClient, Subscription> clients;
+    // lista di coppie <client registrato per callback, città e numero di primi classificati di interesse>
+    /** Sessioni degli utenti loggati/online */
+    private final SessionRegistry sessions;
+    /** Log delle modifiche alle strutture dati dopo l'ultimo backup */
+    private final WriteAheadLog wal;
+    /** Nomi utente delle registrazioni in attesa della scrittura sul log */
+    private final Set<String> pendingUsers;
+    /** Voti in attesa della scrittura sul log, nel formato {@code <identificatore recensione>:<sessione>} */
+    private final Set<String> pendingUpvotes;
+    /** Archivio delle recensioni su file mappati in memoria, null se le recensioni sono memorizzate nello heap */
+    private final ReviewStore reviewStore;
 
     public HOTELIERServer(int connection_port, int registry_port, String hotel_filename, String user_filename,
                           String file_format, String config_filepath, String backup_filepath,
-                          long ranking_timeout, long backup_timeout, String multicast_address, int multicast_port)
+                          long ranking_timeout, long backup_timeout, String multicast_address, int multicast_port,
+                          int reactors, int request_threads, int buffer_pool_size, int buffer_size,
+                          boolean incremental_ranking, String wal_fsync, long wal_sync_interval,
+                          boolean backup_pretty_print, boolean mapped_reviews)
             throws IOException, AlreadyBoundException {
         // Inizializzo le strutture dati
-        this.onlineUsers = Collections.synchronizedList(new LinkedList<>());
-        this.clients = Collections.synchronizedMap(new HashMap<>());
-        this.users = Collections.synchronizedMap(new HashMap<>());
-        this.hotels = Collections.synchronizedMap(new HashMap<>());
-        this.reviews = Collections.synchronizedMap(new HashMap<>());
-        this.localRanking = Collections.synchronizedMap(new HashMap<>());
-        for (City city: City.values()) localRanking.put(city.getName(), new LinkedList<>()); // le città sono le entries della map
+        this.sessions = new SessionRegistry();
+        // Le strutture dati sono concorrenti: le operazioni su utenti, hotel e città diversi non si bloccano a vicenda
+        // e le modifiche di un elemento sono sincronizzate sull'elemento stesso
+        this.clients = new ConcurrentHashMap<>();
+        this.users = new ConcurrentHashMap<>();
+        this.hotels = new ConcurrentHashMap<>();
+        this.reviews = new ConcurrentHashMap<>();
+        this.reviewIndex = new ReviewIndex();
+        this.postIndex = new PostIndex();
+        this.localRanking = new ConcurrentHashMap<>();
+        for (City city: City.values()) localRanking.put(city.getName(), new ArrayList<>()); // le città sono le entries della map
+        this.snapshots = new ConcurrentHashMap<>();
+        this.replyCache = new ReplyCache();
+        this.pendingUsers = ConcurrentHashMap.newKeySet();
+        this.pendingUpvotes = ConcurrentHashMap.newKeySet();
 
         // Controllo se le directory per il backup esistono, altrimenti le creo
         File hotel_backup = new File(backup_filepath + BackupHandler.hotel_dir);
         File user_backup = new File(backup_filepath + BackupHandler.user_dir);
         if (!hotel_backup.exists()) hotel_backup.mkdirs();
         if (!user_backup.exists()) user_backup.mkdirs();
-        // Reperisco le liste di file contenuti nelle directory
-        File[] hotel_folder = hotel_backup.listFiles();
-        File[] user_folder = user_backup.listFiles();
-        // Per i file relativi ai database, inizializzo le variabili con i file contenuti nella directory Server/config/
-        File user_database = new File(config_filepath + user_filename + file_format);
-        File hotel_database = new File(config_filepath + hotel_filename + file_format);
-
-        if (hotel_folder != null) for (File file: hotel_folder) {
-            // Controllo che il file non sia vuoto, altrimenti proseguo
-            if (file.length() == 0) continue;
-            // Controllo se è un file di backup di hotels e che la data di ultima modifica sia più recente di quella del file corrente
-            // In caso positivo, assegno alla variabile il file appena controllato
-            if (file.getName().contains(hotel_filename) && file.getName().contains(file_format))
-                if (file.lastModified() > hotel_database.lastModified()) hotel_database = file;
-        } if (user_folder != null) for (File file: user_folder) { // come sopra
-            if (file.length() == 0) continue;
-            if (file.getName().contains(user_filename) && file.getName().contains(file_format))
-                if (file.lastModified() > user_database.lastModified()) user_database = file;
+        // Controllo che il formato dei backup sia supportato (vedi Snapshot)
+        if (!Snapshot.supported(file_format)) throw new IOException("unsupported file format " + file_format);
+
+        // Recupero il backup più recente per ripristinare le strutture dati, a partire dai file contenuti nella
+        // directory Server/config/
+        long start = System.currentTimeMillis();
+        long sequence = readFile(new File(config_filepath), hotel_backup, hotel_filename, user_backup, user_filename);
+        // Recupero le recensioni dall'archivio, se è abilitato o se è stato usato in precedenza: in quest'ultimo caso
+        // le recensioni confermate con il backup letto vengono copiate nello heap
+        File store_directory = new File(backup_filepath + ReviewStore.store_dir);
+        ReviewStore store = (mapped_reviews || store_directory.exists())? new ReviewStore(store_directory) : null;
+        List<Review> stored = (store != null)? store.restore(sequence, !mapped_reviews) : null;
+        this.reviewStore = (mapped_reviews)? store : null;
+        // Se il backup letto non è nell'archivio, vi copio le recensioni contenute nel backup
+        if (reviewStore != null && stored == null)
+            for (User user: users.values()) user.replaceReviews(reviewStore::add);
+        if (stored != null) for (Review review: stored) {
+            // Gli identificatori successivi partono dal massimo tra quelli archiviati, comprese le recensioni ignorate
+            N_REVIEWS.accumulateAndGet(review.getId() - 1000, Math::max);
+            User user = users.get(review.getAuthor());
+            if (user != null && hotels.containsKey(review.getHotel())) user.restoreReview(review);
         }
-
-        // Recupero i backup per ripristinare le strutture dati
-        readFile(hotel_database, user_database);
+        if (stored != null) System.out.println(printCurrentDate() + "\t" + stored.size()
+                + " reviews have been restored from the review store");
+        long loaded = loadReviews();
+        long time = Math.max(System.currentTimeMillis() - start, 1);
+        System.out.println(printCurrentDate() + "\t" + users.size() + " users and " + loaded
+                + " reviews have been loaded in " + time + " ms (" + (users.size() + loaded) * 1000 / time
+                + " records/s)");
+        // Ripristino le modifiche registrate sul log dopo il backup, prima di costruire le classifiche
+        this.wal = new WriteAheadLog(new File(backup_filepath + WriteAheadLog.wal_dir),
+                WriteAheadLog.Sync.valueOf(wal_fsync.trim().toUpperCase()), wal_sync_interval);
+        long records = wal.replay(this);
+        if (records > 0) System.out.println(printCurrentDate() + "\t" + records + " log records have been replayed");
         for (List<Hotel> hotels: this.localRanking.values()) hotels.sort(Comparator.comparing(Hotel::getName));
+        // Costruisco gli indici per la ricerca degli hotel per nome, gli hotel non cambiano dopo il caricamento
+        this.nameIndex = new HashMap<>();
+        for (Map.Entry<String, List<Hotel>> entry: localRanking.entrySet())
+            nameIndex.put(entry.getKey(), new NameIndex(entry.getValue()));
+        this.incrementalRanking = (incremental_ranking)? new IncrementalRanking(this, localRanking, reviews) : null;
         updateRankings();
 
         // Inizializzo e avvio i threads che si occupano dell'aggiornamento dei backup, dei rankings locali
         // e della gestione delle connessioni/richieste
-        BackupHandler backupHandler = new BackupHandler(backup_timeout, this, user_filename, hotel_filename,
-                file_format, backup_filepath);
+        wal.start();
+        // Alla terminazione del server scrivo i record del log non ancora scritti
+        Runtime.getRuntime().addShutdownHook(new Thread(wal::close));
+        BackupHandler backupHandler = new BackupHandler(backup_timeout, this, wal, user_filename, hotel_filename,
+                file_format, backup_filepath, sequence, backup_pretty_print);
         backupHandler.start();
         RankingHandler rankingHandler = new RankingHandler(ranking_timeout, this, updateRankings(),
                 multicast_address, multicast_port);
         rankingHandler.start();
-        TCPHandler TCPHandler = new TCPHandler(this, connection_port);
+        TCPHandler TCPHandler = new TCPHandler(this, connection_port, reactors, request_threads,
+                buffer_pool_size, buffer_size);
         TCPHandler.start();
 
         // Esporto questo oggetto remoto e lo registro nel registry appena definito, creando il collegamento tra questo
@@ -112,106 +168,264 @@ public class HOTELIERServer extends RemoteServer implements RMIHOTELIERServer, H
 
     /**
      * <p align="justify">
-     *     Legge i file indicati e li memorizza nelle strutture dati corrispondenti.
+     *     Legge il backup più recente tra i file di configurazione e quelli contenuti nelle directory di backup e lo
+     *     memorizza nelle strutture dati corrispondenti.
+     * </p> <p align="justify">
+     *     Il backup più recente è quello con il numero di sequenza più alto per cui sono presenti e completi sia il
+     *     file degli hotel che quello degli utenti (vedi {@link Snapshot}). Se il backup è danneggiato, viene letto il
+     *     precedente. A parità di numero di sequenza (ad esempio per i file senza numero di sequenza) viene scelto il
+     *     file modificato più di recente. I file possono essere in uno qualsiasi dei formati supportati.
      * </p>
-     * @param hotel_database il file di backup degli hotel del servizio
-     * @param user_database il file di backup degli utenti registrati
+     * @param config_directory la directory dei file di configurazione
+     * @param hotel_backup la directory di backup degli hotel
+     * @param hotel_filename il nome dei file degli hotel
+     * @param user_backup la directory di backup degli utenti
+     * @param user_filename il nome dei file degli utenti
+     * @return il numero di sequenza del backup letto
      */
-    private void readFile(File hotel_database, File user_database) {
+    private long readFile(File config_directory, File hotel_backup, String hotel_filename,
+                          File user_backup, String user_filename) {
         // Definisco l'object mapper per deserializzare gli oggetti
         ObjectMapper objectMapper = new ObjectMapper();
         // Imposto le proprietà dell'object mapper
         objectMapper.setVisibility(PropertyAccessor.ALL, JsonAutoDetect.Visibility.NONE);
         objectMapper.setVisibility(PropertyAccessor.FIELD, JsonAutoDetect.Visibility.ANY);
-        JsonFactory factory = new JsonFactory();
-        JsonParser parser;
 
-        // Leggo il file di backup degli hotel
-        try {
-            parser = factory.createParser(hotel_database);
-            parser.setCodec(objectMapper);
-            if (parser.nextToken() != JsonToken.START_ARRAY)
+        // Reperisco i file di backup di hotel e utenti per numero di sequenza
+        NavigableMap<Long, File> hotel_files = backupFiles(objectMapper, config_directory, hotel_backup, hotel_filename);
+        NavigableMap<Long, File> user_files = backupFiles(objectMapper, config_directory, user_backup, user_filename);
+
+        for (long sequence: hotel_files.descendingKeySet()) {
+            if (!user_files.containsKey(sequence)) continue;
+            // Leggo per intero entrambi i file prima di modificare le strutture dati, così che un file danneggiato
+            // non lasci un backup caricato solo in parte
+            Snapshot<Hotel> hotel_snapshot;
+            Snapshot<User> user_snapshot;
+            try {
+                hotel_snapshot = Snapshot.read(objectMapper, hotel_files.get(sequence), Snapshot.HOTEL);
+                user_snapshot = Snapshot.read(objectMapper, user_files.get(sequence), Snapshot.USER);
+            } catch (IOException e) {
                 System.out.println(printCurrentDate()
-                        + "\tServer.HOTERLIERServerDatabase.readFile(): an error occurred while reading hotel config file");
-            while (parser.nextToken() == JsonToken.START_OBJECT) {
-                // Converto i dati JSON nell'oggetto di tipo Hotel
-                Hotel hotel = parser.readValueAs(Hotel.class);
+                        + "\tServer.HOTERLIERServerDatabase.readFile(): an error occurred with backup " + sequence);
+                continue;
+            }
+
+            for (Hotel hotel: hotel_snapshot.data) {
                 // Aggiungo l'hotel decodificato alle strutture dati e definendo le key e le entries delle map
                 hotels.put(hotel.getName(), hotel);
-                reviews.put(hotel.getName(), new LinkedList<>());
+                reviews.put(hotel.getName(), new ReviewList());
                 localRanking.get(hotel.getCity()).add(hotel);
             }
-        } catch (IOException e) {
-            System.out.println(printCurrentDate()
-                    + "\tServer.HOTERLIERServerDatabase.readFile(): an error occurred with hotel file");
+            for (User user: user_snapshot.data) {
+                // Aggiungo l'utente decodificato alle strutture dati, le recensioni vengono aggiunte in seguito (vedi
+                // loadReview(User, Review))
+                users.put(user.getUsername(), user);
+                // Gli identificatori successivi partono dal massimo tra quelli caricati
+                N_USERS.accumulateAndGet(user.getId() - 1000, Math::max);
+            }
+
+            System.out.println(printCurrentDate() + "\tconfig files have been successfully uploaded (backup "
+                    + sequence + ")");
+            return sequence;
         }
 
-        // Leggo il file di backup degli utenti
-        try {
-            parser = factory.createParser(user_database);
-            parser.setCodec(objectMapper);
-            if (parser.nextToken() != JsonToken.START_ARRAY)
+        System.out.println(printCurrentDate()
+                + "\tServer.HOTERLIERServerDatabase.readFile(): no valid hotel and user files have been found");
+        return 0;
+    }
+
+    /**
+     * <p align="justify">
+     *     Restituisce i file di backup non vuoti con il nome indicato, tra quelli contenuti nella directory dei file di
+     *     configurazione e nella directory di backup, per numero di sequenza. I file temporanei e quelli non validi
+     *     vengono ignorati.
+     * </p>
+     * @param objectMapper l'object mapper per la deserializzazione dei dati
+     * @param config_directory la directory dei file di configurazione
+     * @param directory la directory di backup
+     * @param filename il nome dei file
+     * @return la map ordinata di coppie <numero di sequenza, file>
+     */
+    private static NavigableMap<Long, File> backupFiles(ObjectMapper objectMapper, File config_directory,
+                                                        File directory, String filename) {
+        List<File> files = new ArrayList<>();
+        for (File folder: new File[]{config_directory, directory}) {
+            File[] content = folder.listFiles();
+            if (content != null) Collections.addAll(files, content);
+        }
+
+        NavigableMap<Long, File> backups = new TreeMap<>();
+        for (File file: files) {
+            // Controllo che il file non sia vuoto e che sia un file di backup, altrimenti proseguo
+            if (file.length() == 0 || !file.getName().startsWith(filename) || !Snapshot.supported(file.getName()))
+                continue;
+            try {
+                // A parità di numero di sequenza, scelgo il file con la data di ultima modifica più recente
+                backups.merge(Snapshot.sequence(objectMapper, file), file,
+                        (current, other) -> (other.lastModified() > current.lastModified())? other : current);
+            } catch (IOException e) {
                 System.out.println(printCurrentDate()
-                        + "\tServer.HOTERLIERServerDatabase.readFile(): an error occurred while reading user config file");
-            while (parser.nextToken() == JsonToken.START_OBJECT) {
-                // Converto i dati JSON nell'oggetto di tipo User
-                User user = parser.readValueAs(User.class);
-                // Aggiungo l'utente decodificato e le recensioni da questo pubblicate alle strutture dati
-                users.put(user.getUsername(), user);
-                for (Review review: user.getReviews()) reviews.get(review.getHotel()).add(review);
-                N_USERS++;
-                N_REVIEWS += user.getReviews().size();
+                        + "\tServer.HOTERLIERServerDatabase.backupFiles(..): invalid backup file " + file.getName());
             }
-            // Per ogni hotel, una volta aggiunte tutte le recensioni, le riordino in ordine decrescente di data
-            for (List<Review> reviews: reviews.values())
-                reviews.sort(Comparator.comparingLong(Review::getTime).reversed());
-        } catch (IOException e) {
-            System.out.println(printCurrentDate()
-                    + "\tServer.HOTERLIERServerDatabase.readFile(): an error occurred with user file");
-            return;
         }
+        return backups;
+    }
 
-        System.out.println(printCurrentDate() + "\tconfig files have been successfully uploaded");
+    /**
+     * <p align="justify">
+     *     Aggiunge alle strutture dati le recensioni degli utenti caricati all'avvio, in parallelo sul pool fork-join
+     *     comune: le recensioni vengono registrate negli indici e raggruppate per hotel in parallelo sugli utenti, poi
+     *     le recensioni di ciascun hotel vengono ordinate una sola volta, in parallelo sugli hotel. Le recensioni di
+     *     hotel non presenti nel backup vengono ignorate, come nel ripristino dal log (vedi
+     *     {@link #restoreReview(Review)}).
+     * </p>
+     * @return il numero di recensioni caricate
+     */
+    private long loadReviews() {
+        LongAdder skipped = new LongAdder();
+        Predicate<Review> unknown = review -> !hotels.containsKey(review.getHotel());
+        Map<String, List<Review>> loaded = users.values().parallelStream()
+                .flatMap(user -> {
+                    List<Review> reviews = user.getReviews();
+                    // Gli identificatori successivi partono dal massimo tra quelli caricati, comprese le recensioni
+                    // ignorate, che restano nei backup precedenti
+                    for (Review review: reviews) N_REVIEWS.accumulateAndGet(review.getId() - 1000, Math::max);
+                    // Le recensioni ignorate vengono rimosse anche dall'utente, così che non compaiano tra le sue
+                    // recensioni né nei backup successivi
+                    if (reviews.removeIf(unknown)) skipped.add(user.removeReviews(unknown));
+                    for (Review review: reviews) {
+                        reviewIndex.put(review);
+                        postIndex.put(user.getId(), hotels.get(review.getHotel()).getId(), review.getTime());
+                    }
+                    return reviews.stream();
+                })
+                .collect(Collectors.groupingByConcurrent(Review::getHotel));
+        // Le liste di recensioni degli hotel sono in ordine di pubblicazione, a parità di data in ordine di
+        // identificatore, così che le posizioni delle recensioni non cambino da un avvio all'altro
+        loaded.entrySet().parallelStream().forEach(entry -> {
+            Review[] reviews = entry.getValue().toArray(new Review[0]);
+            Arrays.sort(reviews, Comparator.comparingLong(Review::getTime).thenComparingInt(Review::getId));
+            this.reviews.put(entry.getKey(), new ReviewList(reviews));
+        });
+        long ignored = skipped.sum();
+        if (ignored > 0) System.out.println(printCurrentDate() + "\t" + ignored + " reviews of unknown hotels have been ignored");
+        return loaded.values().stream().mapToLong(List::size).sum();
+    }
+
+    /**
+     * Aggiunge la recensione indicata all'archivio delle recensioni, se è abilitato.
+     * @param review la recensione
+     * @return la recensione nell'archivio o la recensione indicata se l'archivio non è abilitato
+     */
+    private Review store(Review review) {
+        return (reviewStore != null)? reviewStore.add(review) : review;
+    }
+
+    // Metodi per il ripristino delle modifiche registrate sul log (vedi WriteAheadLog#replay)
+    /**
+     * Ripristina l'utente indicato, se non è già presente nel backup.
+     * @param user l'utente registrato
+     */
+    void restoreUser(User user) {
+        if (users.putIfAbsent(user.getUsername(), user) == null)
+            N_USERS.accumulateAndGet(user.getId() - 1000, Math::max);
+    }
+
+    /**
+     * <p align="justify">
+     *     Ripristina la recensione indicata, se non è già presente nel backup, aggiornando i punteggi dell'hotel come
+     *     alla sua pubblicazione.
+     * </p>
+     * @param review la recensione pubblicata
+     */
+    void restoreReview(Review review) {
+        if (reviewIndex.get(review.getId()) != null) return;
+        User user = users.get(review.getAuthor());
+        Hotel hotel = hotels.get(review.getHotel());
+        if (user == null || hotel == null) return;
+        // Copio la recensione nell'archivio solo se viene ripristinata
+        review = store(review);
+        ReviewList list = reviews.get(hotel.getName());
+        user.addReview(review);
+        list.addFirst(review);
+        hotel.updateAllRatings(review.getRate(), review.getRatings(), list.size());
+        reviewIndex.put(review);
+        postIndex.put(user.getId(), hotel.getId(), review.getTime());
+        N_REVIEWS.accumulateAndGet(review.getId() - 1000, Math::max);
+    }
+
+    /**
+     * Ripristina il voto della sessione indicata per la recensione indicata.
+     * @param id l'identificatore della recensione
+     * @param session la sessione che ha votato la recensione
+     */
+    void restoreUpvote(int id, String session) {
+        Review review = reviewIndex.get(id);
+        if (review != null) review.addUpvote(session);
     }
 
     // Metodi set
-    public static int setnUsers() { return ++N_USERS; }
+    public static int setnUsers() { return N_USERS.incrementAndGet(); }
 
-    public static int setnReviews() { return ++N_REVIEWS; }
+    public static int setnReviews() { return N_REVIEWS.incrementAndGet(); }
 
 
     // Metodi dichiari nell'interfaccia RMIHOTELIERServer
     @Override
-    public synchronized boolean register(String username, String password)
-            throws UsernameAlreadyTakenException,InvalidPasswordException {
+    public boolean register(String username, String password)
+            throws RemoteException, UsernameAlreadyTakenException,InvalidPasswordException {
         if (password == null) throw new InvalidPasswordException();
         if (users.containsKey(username)) throw new UsernameAlreadyTakenException();
+        // Riservo il nome utente, così che di due registrazioni concorrenti con lo stesso nome utente ne riesca una
+        if (!pendingUsers.add(username)) throw new UsernameAlreadyTakenException();
         User user = new User(username, password);
-        users.put(username, user);
+        wal.beginUpdate();
+        try {
+            if (users.containsKey(username)) throw new UsernameAlreadyTakenException();
+            // L'utente viene inserito solo dopo che la registrazione è stata scritta sul log: se la scrittura non
+            // riesce, il nome utente resta libero
+            wal.commit(wal.logRegister(user.getId(), username, password));
+            users.put(username, user);
+        } catch (IOException e) {
+            throw new RemoteException("unable to write the registration to the log", e);
+        } finally {
+            wal.endUpdate();
+            pendingUsers.remove(username);
+        }
         System.out.println(printCurrentDate() + "\tuser #" + user.getId() + " has been successfully registered");
         return true;
     }
 
     @Override
-    public synchronized List<List<String>> registerForCallback(CallbackHOTELIERClient stub, List<String> cities)
+    public List<List<String>> registerForCallback(CallbackHOTELIERClient stub, List<String> cities)
+            throws RemoteException {
+        return registerForCallback(stub, cities, hotels.size());
+    }
+
+    @Override
+    public List<List<String>> registerForCallback(CallbackHOTELIERClient stub, List<String> cities, int limit)
             throws RemoteException {
-        if (!clients.containsKey(stub)) {
-            clients.put(stub, cities);
+        // Il numero di primi classificati non può superare il numero di hotel, che limita la lunghezza delle classifiche
+        if (limit <= 0 || limit > hotels.size()) {
+            System.out.println(printCurrentDate()
+                    + "\tHOTELIERServer.registerForCallback(..): invalid number of hotels for callback");
+            return null;
+        }
+        if (clients.putIfAbsent(stub, new Subscription(cities, limit)) == null) {
             System.out.println(printCurrentDate() + "\tnew client registered for callback");
         } else System.out.println(printCurrentDate()
                 + "\tHOTELIERServer.registerForCallback(..): unable to register client for callback");
         if (cities != null) {
-            // Per ogni città, individuo gli hotel presenti nella stessa e li memorizzo nella lista (come lista)
+            // Per ogni città, individuo i primi hotel in classifica nella stessa e li memorizzo nella lista (come lista)
             List<List<String>> hotels = new LinkedList<>();
-            for (String city: cities) hotels.add(new ArrayList<>(localRanking.get(city).stream().map(Hotel::getName).toList()));
+            for (String city: cities) hotels.add(new ArrayList<>(top(snapshots.get(city).names, limit)));
             return hotels;
         } else return null;
     }
 
     @Override
-    public synchronized void unregisterForCallback(CallbackHOTELIERClient stub) throws RemoteException {
-        if (clients.containsKey(stub)) {
-            clients.remove(stub);
+    public void unregisterForCallback(CallbackHOTELIERClient stub) throws RemoteException {
+        if (clients.remove(stub) != null) {
             System.out.println(printCurrentDate() + "\tclient unregistered successfully");
         }
     }
@@ -220,69 +434,134 @@ public class HOTELIERServer extends RemoteServer implements RMIHOTELIERServer, H
      * <p align="justify">
      *     Notifica l'aggiornamento della classifica della città indicata ed effettua la callback a tutti i client
      *     registrati al servizio di notifica per gli aggiornamenti della città.
+     * </p> <p align="justify">
+     *     Ciascun client riceve solo i primi hotel in classifica per cui si è registrato e non viene notificato se
+     *     questi non sono cambiati rispetto alla classifica precedente.
      * </p>
      * @param city la città per cui è stata aggiornata la classifica
+     * @param previous la classifica precedente della città, {@code null} per notificare tutti i client
      * @throws RemoteException
      */
-    public void update(String city) throws RemoteException {
-        doCallbacks(city);
+    public void update(String city, List<String> previous) throws RemoteException {
+        doCallbacks(city, previous);
     }
 
-    private synchronized void doCallbacks(String city) throws RemoteException {
+    private void doCallbacks(String city, List<String> previous) throws RemoteException {
+        List<String> names = snapshots.get(city).names;
         // Itero su tutti i client della struttura dati che si sono registrati al servizio di notifica
-        for (CallbackHOTELIERClient client: clients.keySet()) {
+        for (Map.Entry<CallbackHOTELIERClient, Subscription> entry: clients.entrySet()) {
             // Per ogni client, controllo se hanno registrato il proprio interesse per la città indicata
-            // In caso positivo, lo notifico, passando come parametro la città e la classifica degli hotel aggiornata
-            if (clients.get(client).contains(city))
-                client.notifyEvent(city, localRanking.get(city).stream().map(Hotel::getName).toList());
+            // In caso positivo, lo notifico, passando come parametro la città e i primi hotel della classifica
+            // aggiornata, a meno che non siano rimasti invariati
+            Subscription subscription = entry.getValue();
+            if (subscription.cities != null && subscription.cities.contains(city)) {
+                List<String> hotels = top(names, subscription.limit);
+                if (previous == null || !hotels.equals(top(previous, subscription.limit)))
+                    entry.getKey().notifyEvent(city, hotels);
+            }
         }
     }
 
+    /**
+     * Restituisce una copia serializzabile dei primi hotel della classifica indicata.
+     * @param names la classifica degli hotel
+     * @param limit il numero di hotel
+     * @return i primi {@code limit} hotel della classifica
+     */
+    private static List<String> top(List<String> names, int limit) {
+        return (limit >= names.size())? names : List.copyOf(names.subList(0, limit));
+    }
+
 
     // Metodi dichiarati nell'interfaccia HOTELIERServerInterface
     public boolean login(String username, String password)
         throws UserNotRegisteredException, UserAlreadyLoggedInException, InvalidPasswordException, WrongPasswordException {
-        if (password == null) throw new InvalidPasswordException();
-        if (!users.containsKey(username)) throw new UserNotRegisteredException();
-        if (!users.get(username).verifyPassword(password)) throw new WrongPasswordException();
-        synchronized (onlineUsers) {
-            if (onlineUsers.contains(username)) throw new UserAlreadyLoggedInException();
-            return onlineUsers.add(username);
-        }
+        return openSession(username, password) != null;
     }
 
     public boolean logout(String username) throws UserNotRegisteredException, UserNotLoggedInException {
         if (!users.containsKey(username)) throw new UserNotRegisteredException();
-        synchronized (onlineUsers) {
-            if (!onlineUsers.contains(username)) throw new UserNotLoggedInException();
-            return onlineUsers.remove(username);
-        }
+        if (!sessions.close(username)) throw new UserNotLoggedInException();
+        return true;
+    }
+
+    /**
+     * <p align="justify">
+     *     Effettua il login al profilo utente come {@link #login(String, String)} e restituisce la sessione aperta,
+     *     da mantenere sulla connessione per il logout.
+     * </p>
+     * @param username il nome utente
+     * @param password la password
+     * @return la sessione dell'utente
+     * @throws UserNotRegisteredException se l'utente non è registrato
+     * @throws UserAlreadyLoggedInException se l'utente ha già effettuato l'accesso
+     * @throws InvalidPasswordException se la password è {@code null}, non valida
+     * @throws WrongPasswordException se la password è errata, non corrisponde a quella dell'utente
+     */
+    SessionRegistry.Session openSession(String username, String password)
+        throws UserNotRegisteredException, UserAlreadyLoggedInException, InvalidPasswordException, WrongPasswordException {
+        if (password == null) throw new InvalidPasswordException();
+        User user = users.get(username);
+        if (user == null) throw new UserNotRegisteredException();
+        if (!user.verifyPassword(password)) throw new WrongPasswordException();
+        SessionRegistry.Session session = sessions.open(username);
+        if (session == null) throw new UserAlreadyLoggedInException();
+        return session;
+    }
+
+    /**
+     * <p align="justify">
+     *     Effettua il logout chiudendo la sessione indicata, se è ancora aperta. Una sessione già chiusa non chiude
+     *     quella aperta in seguito dallo stesso utente.
+     * </p>
+     * @param session la sessione da chiudere
+     * @return {@code true} se il logout è andato a buon fine, {@code false} se la sessione non era aperta
+     */
+    boolean closeSession(SessionRegistry.Session session) {
+        return sessions.close(session);
     }
 
     public String searchHotel(String hotel, String city) throws InvalidCityException {
-        return listToString(search(hotel, city));
+        List<Hotel> hotels = search(hotel, city);
+        return snapshots.get(city).render(hotels);
     }
 
     public String searchAllHotels(String city) throws InvalidCityException {
-        if (!localRanking.containsKey(city)) throw new InvalidCityException();
-        return listToString(localRanking.get(city));
+        RankingSnapshot snapshot = snapshots.get(city);
+        if (snapshot == null) throw new InvalidCityException();
+        return snapshot.render();
+    }
+
+    /**
+     * <p align="justify">
+     *     Restituisce le descrizioni dei primi hotel in classifica nella città indicata, senza scorrere il resto della
+     *     classifica.
+     * </p>
+     * @param city la città
+     * @param limit il numero di hotel
+     * @return le descrizioni dei primi {@code limit} hotel, una per riga
+     * @throws InvalidCityException se la città non è una di quelle selezionabili previste
+     * @throws IllegalArgumentException se il numero di hotel non è positivo
+     */
+    public String searchTopHotels(String city, int limit) throws InvalidCityException {
+        RankingSnapshot snapshot = snapshots.get(city);
+        if (snapshot == null) throw new InvalidCityException();
+        if (limit <= 0) throw new IllegalArgumentException();
+        return snapshot.render(limit);
     }
 
     private List<Hotel> search(String hotel, String city) throws InvalidCityException {
-        if (!localRanking.containsKey(city)) throw new InvalidCityException();
-        return localRanking.get(city).stream()
-                .filter(object -> object.getName().toLowerCase().contains(hotel.toLowerCase()))
-                .toList();
+        NameIndex index = nameIndex.get(city);
+        if (index == null) throw new InvalidCityException();
+        return index.search(hotel);
     }
 
     public void insertReview(String hotel, String city, double score, double[] scores, String username)
             throws InvalidHotelException, UserNotRegisteredException, UserNotLoggedInException, InvalidCityException,
-            InvalidScoreException, ReviewAlreadyPostedException {
-        // La variabile indica il tempo da attendere per postare la prossima recensione, riferita all'hotel indicato
-        // e con lo stesso autore
-        long time = checkReviewValidity(hotel, username, System.currentTimeMillis());
+            InvalidScoreException, ReviewAlreadyPostedException, IOException {
+        if (!hotels.containsKey(hotel)) throw new InvalidHotelException();
         if (!users.containsKey(username)) throw new UserNotRegisteredException();
-        if (!onlineUsers.contains(username)) throw new UserNotLoggedInException();
+        if (!sessions.contains(username)) throw new UserNotLoggedInException();
 
         // Controllo che esista effettivamente un unico hotel con quel nome e in quella città
         List<Hotel> hotelList = search(hotel, city);
@@ -298,17 +577,47 @@ public class HOTELIERServer extends RemoteServer implements RMIHOTELIERServer, H
         for (int i = 0; i < Ratings.getnCategories(); i++) if (scores[i] < 0 || scores[i] > 5)
             throw new InvalidScoreException("Voto di categoria non valido!");
 
+        // La variabile indica il tempo da attendere per postare la prossima recensione, riferita all'hotel indicato
+        // e con lo stesso autore
+        long curr_time = System.currentTimeMillis();
+        long time = checkReviewValidity(hotel, username, curr_time);
         // Controllo se il tempo da attendere sia superiore a 0, in questo caso non è possibile postare la recensione
         if (time > 0L) throw new ReviewAlreadyPostedException((int) time/1000);
 
         // Creo una nuova recensione e la aggiungo alla lista di recensioni effettuate dallo stesso autore
         // L'inserimento avviene in testa, così da mantenere l'ordinamento decrescente con le recensioni più recenti in alto
         Review review = new Review(username, hotel, score, scores);
-        users.get(username).addReview(review);
-        // Aggiungo la review anche al database delle recensioni e aggiorno i punteggi per questa struttura
-        synchronized (reviews) {
-            reviews.get(hotel).addFirst(review);
-            hotels.get(hotel).updateAllRatings(score, scores, reviews.get(hotel).size());
+        wal.beginUpdate();
+        try {
+            // Registro la recensione sul log e attendo la scrittura prima di renderla visibile, e quindi votabile, alle
+            // altre richieste: se la scrittura non riesce, la recensione non viene pubblicata e l'utente può riprovare
+            try {
+                wal.commit(wal.logReview(review));
+            } catch (IOException e) {
+                postIndex.release(users.get(username).getId(), hotels.get(hotel).getId(), curr_time,
+                        RankingHandler.getTimeout());
+                throw e;
+            }
+            // Se l'archivio delle recensioni è abilitato, la recensione pubblicata è quella contenuta nell'archivio
+            review = store(review);
+            // Indicizzo la recensione prima di aggiungerla alle liste, così che una recensione restituita da una
+            // lettura concorrente sia sempre votabile
+            reviewIndex.put(review);
+            users.get(username).addReview(review);
+            // Aggiungo la review anche al database delle recensioni e aggiorno i punteggi per questa struttura
+            // Sincronizzo sulla lista di recensioni dell'hotel, così da non bloccare le operazioni sugli altri hotel
+            ReviewList list = reviews.get(hotel);
+            synchronized (list) {
+                list.addFirst(review);
+                hotels.get(hotel).updateAllRatings(score, scores, list.size());
+            }
+            // Pubblico la descrizione aggiornata dell'hotel, senza attendere il prossimo aggiornamento della classifica
+            snapshots.computeIfPresent(hotels.get(hotel).getCity(), (key, snapshot) -> snapshot.update(hotels.get(hotel)));
+            replyCache.invalidate(ReplyCache.key(Method.SEARCHALL, hotels.get(hotel).getCity()));
+            replyCache.invalidate(ReplyCache.key(Method.SHOWREVIEWS, hotel, hotels.get(hotel).getCity()));
+            if (incrementalRanking != null) incrementalRanking.onReview(hotels.get(hotel), review);
+        } finally {
+            wal.endUpdate();
         }
         System.out.println(printCurrentDate() + "\treview #" + review.getId() + " by user #"
                 + users.get(username).getId() + " has been posted");
@@ -316,11 +625,13 @@ public class HOTELIERServer extends RemoteServer implements RMIHOTELIERServer, H
 
     /**
      * <p align="justify">
-     *     Verifica se per l'hotel indicato esiste un'altra recensione con lo stesso autore.
-     *     In caso affermativo, controlla che sia trascorso il tempo stabilito.
+     *     Verifica se l'utente indicato ha già pubblicato una recensione per l'hotel indicato.
+     *     In caso affermativo, controlla che sia trascorso il tempo stabilito dalla più recente.
      * </p> <p align="justify">
      *     Restituisce il tempo da attendere per pubblicare la prossima recensione, se è scaduto il timeout {@code 0L}
-     *     in modo da consentire la pubblicazione.
+     *     in modo da consentire la pubblicazione, che viene registrata al tempo indicato. Il controllo e la
+     *     registrazione avvengono in un'unica operazione, per cui due richieste concorrenti non possono essere
+     *     entrambe consentite.
      * </p>
      * @param hotel l'hotel da recensire
      * @param username l'utente autore della recensione
@@ -329,21 +640,9 @@ public class HOTELIERServer extends RemoteServer implements RMIHOTELIERServer, H
      * @throws InvalidHotelException se l'hotel indicato non esiste
      */
     private long checkReviewValidity(String hotel, String username, long curr_time) throws InvalidHotelException {
-        if (!reviews.containsKey(hotel)) throw new InvalidHotelException();
-        synchronized (reviews) {
-            for (Review element: reviews.get(hotel)) if (element.getAuthor().equals(username))
-                // Per ciascuna review riferita all'hotel, se l'autore di questa è l'utente indicato, controllo se il tempo
-                // trascorso dall'ultima recensione è minore del timeout
-                if ((curr_time - element.getTime()) < RankingHandler.getTimeout())
-                    // In caso positivo, ritorno il tempo ancora da attendere
-                    return RankingHandler.getTimeout() - (curr_time - element.getTime());
-        }
-        // Se:
-        // - l'hotel non ha recensioni,
-        // - l'utente non ha fatto recensioni per questo hotel,
-        // - l'utente ha fatto almeno un'altra recensione ma è trascorso il timeout,
-        // allora ritorno 0, nonché il tempo da attendere
-        return 0L;
+        Hotel element = hotels.get(hotel);
+        if (element == null) throw new InvalidHotelException();
+        return postIndex.tryPost(users.get(username).getId(), element.getId(), curr_time, RankingHandler.getTimeout());
     }
 
 
@@ -363,7 +662,37 @@ public class HOTELIERServer extends RemoteServer implements RMIHOTELIERServer, H
         // Caso analogo all'inserimento di una recensione
         if (hotelList.isEmpty()) throw new InvalidHotelException();
         if (hotelList.size() > 2) throw new InvalidHotelException("Il nome della struttura non è corretto.");
-        return listToString(reviews.get(hotel));
+        // Sincronizzo sulla lista così da non leggerla durante l'inserimento di una recensione
+        ReviewList list = reviews.get(hotel);
+        synchronized (list) {
+            return listToString(list);
+        }
+    }
+
+    /**
+     * <p align="justify">
+     *     Se esiste, restituisce una pagina delle recensioni pubblicate per l'hotel indicato, in ordine decrescente di
+     *     data. La pagina viene reperita senza scorrere le altre recensioni dell'hotel.
+     * </p>
+     * @param hotel l'hotel di cui mostrare le recensioni
+     * @param city la città in cui è situato l'hotel
+     * @param limit il numero massimo di recensioni della pagina
+     * @param cursor il cursore della pagina, {@link Integer#MAX_VALUE} per la prima pagina
+     * @return la pagina di recensioni
+     * @throws InvalidCityException se la città non è una di quelle selezionabili previste
+     * @throws InvalidHotelException se l'hotel indicato non esiste
+     * @see ReviewList#page(int, int)
+     */
+    public ReviewList.Page showReviews(String hotel, String city, int limit, int cursor)
+            throws InvalidCityException, InvalidHotelException {
+        List<Hotel> hotelList = search(hotel, city);
+        // Caso analogo all'inserimento di una recensione
+        if (hotelList.isEmpty()) throw new InvalidHotelException();
+        if (hotelList.size() > 2) throw new InvalidHotelException("Il nome della struttura non è corretto.");
+        ReviewList list = reviews.get(hotel);
+        synchronized (list) {
+            return list.page(cursor, limit);
+        }
     }
 
     /**
@@ -373,17 +702,37 @@ public class HOTELIERServer extends RemoteServer implements RMIHOTELIERServer, H
      * @return {@code true} se l'utente o guest non ha ancora votato la recensione, {@code false} altrimenti
      * @throws InvalidVoteException se il voto non è valido, per cui è l'autore a votare la recensione
      * @throws InvalidReviewException se la recensione non esiste
+     * @throws IOException se non è possibile registrare il voto sul log delle modifiche
      */
-    public boolean upvote(String reviewId, String session) throws InvalidVoteException, InvalidReviewException {
-        int id = Integer.parseInt(reviewId);
-        synchronized (reviews) {
-            for (List<Review> reviews: reviews.values()) for (Review review: reviews)
-                if (review.getId() == id) {
-                    if (review.getAuthor().equals(session)) throw new InvalidVoteException();
-                    else return review.addUpvote(session);
-                }
+    public boolean upvote(String reviewId, String session)
+            throws InvalidVoteException, InvalidReviewException, IOException {
+        Review review = reviewIndex.get(Integer.parseInt(reviewId));
+        if (review == null) throw new InvalidReviewException();
+        if (review.getAuthor().equals(session)) throw new InvalidVoteException();
+        int upvotes;
+        Hotel hotel = hotels.get(review.getHotel());
+        // Riservo il voto, così che di due voti concorrenti della stessa sessione ne venga registrato uno senza
+        // bloccare le letture della recensione durante la scrittura sul log
+        String vote = review.getId() + ":" + session;
+        if (!pendingUpvotes.add(vote)) return false;
+        wal.beginUpdate();
+        try {
+            if (review.hasUpvote(session)) return false;
+            // Il voto viene aggiunto solo dopo che è stato scritto sul log: se la scrittura non riesce, non viene contato
+            wal.commit(wal.logUpvote(review.getId(), session));
+            // Il voto e il conteggio dei voti avvengono in un'unica operazione, così che ogni conteggio sia notificato
+            // una volta
+            synchronized (review) {
+                review.addUpvote(session);
+                upvotes = review.getnUpvotes();
+            }
+            replyCache.invalidate(ReplyCache.key(Method.SHOWREVIEWS, hotel.getName(), hotel.getCity()));
+            if (incrementalRanking != null) incrementalRanking.onUpvote(hotel, upvotes);
+        } finally {
+            wal.endUpdate();
+            pendingUpvotes.remove(vote);
         }
-        throw new InvalidReviewException();
+        return true;
     }
 
     /**
@@ -397,13 +746,33 @@ public class HOTELIERServer extends RemoteServer implements RMIHOTELIERServer, H
      */
     public String showMyReviews(String username) throws UserNotRegisteredException, UserNotLoggedInException {
         if (!users.containsKey(username)) throw new UserNotRegisteredException();
-        if (!onlineUsers.contains(username)) throw new UserNotLoggedInException();
+        if (!sessions.contains(username)) throw new UserNotLoggedInException();
         return listToString(users.get(username).getReviews());
     }
 
+    /**
+     * <p align="justify">
+     *     Restituisce una pagina delle recensioni pubblicate dall'utente individuato mediante il nome utente indicato,
+     *     in ordine decrescente di data.
+     * </p>
+     * @param username il nome utente
+     * @param limit il numero massimo di recensioni della pagina
+     * @param cursor il cursore della pagina, {@link Integer#MAX_VALUE} per la prima pagina
+     * @return la pagina di recensioni
+     * @throws UserNotRegisteredException se l'utente non è registrato
+     * @throws UserNotLoggedInException se l'utente non ha effettuato l'accesso
+     * @see ReviewList#page(int, int)
+     */
+    public ReviewList.Page showMyReviews(String username, int limit, int cursor)
+            throws UserNotRegisteredException, UserNotLoggedInException {
+        if (!users.containsKey(username)) throw new UserNotRegisteredException();
+        if (!sessions.contains(username)) throw new UserNotLoggedInException();
+        return users.get(username).getReviews(cursor, limit);
+    }
+
     public String showMyBadges(String username) throws UserNotRegisteredException, UserNotLoggedInException {
         if (!users.containsKey(username)) throw new UserNotRegisteredException();
-        if (!onlineUsers.contains(username)) throw new UserNotLoggedInException();
+        if (!sessions.contains(username)) throw new UserNotLoggedInException();
         return users.get(username).getBadge();
     }
 
@@ -415,31 +784,64 @@ public class HOTELIERServer extends RemoteServer implements RMIHOTELIERServer, H
      *     Restituisce una {@code HashMap} che per ogni città ha definita la classifica degli hotel aggiornata.
      *     </p> <p align="justify">
      *     Ordina gli hotel della stessa città in ordine decrescente in base al punteggio ottenuto.
+     * </p> <p align="justify">
+     *     Se è attivo l'aggiornamento incrementale, vengono ricalcolati solo i punteggi cambiati dall'aggiornamento
+     *     precedente (vedi {@link IncrementalRanking}).
      * </p>
      * @return la classifica aggiornata degli hotel per ogni città
      */
     public HashMap<String, ArrayList<String>> updateRankings() throws IOException {
         long time = System.currentTimeMillis(); // tempo corrente da usare per le chiamate di funzioni successive
-
-        // Sincronizzo sulla struttura così da non consentire altre operazioni
-        synchronized (reviews) {
-            // Per ciascun hotel, calcolo la funzione per aggiornare il ranking di quell'hotel
-            localRanking.values().forEach(hotels -> hotels.forEach(hotel -> rankingAlgorithm(hotel, time)));
-        }
-        // Sincronizzo sulla struttura così da non consentire letture
-        synchronized (localRanking) {
-            // Definisco la struttura da restituire con le classifiche aggiornate
-            HashMap<String, ArrayList<String>> localRanking = new HashMap<>();
-            // Per ciascun hotel presente nella lista degli hotel di una città
-            for (List<Hotel> hotels: this.localRanking.values()) {
-                // Ordino la lista confrontando i rankings degli hotel: la lista è ordinata in ordine non crescente
-                hotels.sort(Comparator.comparingInt(Hotel::getRanking).reversed());
-                // Assegno a ciascun hotel così ordinato la posizione corrispondente nella classifica
-                hotels.forEach(element -> element.setRank(hotels.indexOf(element) + 1));
-                localRanking.put(hotels.get(0).getCity(), new ArrayList<>(hotels.stream().map(Hotel::getName).toList()));
-            }
-            return localRanking;
+        if (incrementalRanking != null) return incrementalRanking.update(time);
+
+        // Per ciascun hotel, calcolo la funzione per aggiornare il ranking di quell'hotel
+        localRanking.values().forEach(hotels -> hotels.forEach(hotel -> rankingAlgorithm(hotel, time)));
+        // Definisco la struttura da restituire con le classifiche aggiornate
+        HashMap<String, ArrayList<String>> localRanking = new HashMap<>();
+        // Per ciascuna città, ordino la lista degli hotel sincronizzando solo sulla lista stessa
+        for (List<Hotel> hotels: this.localRanking.values()) synchronized (hotels) {
+            rank(hotels);
+            publish(hotels.get(0).getCity(), hotels);
+            localRanking.put(hotels.get(0).getCity(), new ArrayList<>(hotels.stream().map(Hotel::getName).toList()));
         }
+        return localRanking;
+    }
+
+    /**
+     * <p align="justify">
+     *     Ordina la lista di hotel indicata in ordine non crescente di ranking e assegna a ciascun hotel la posizione
+     *     corrispondente nella classifica.
+     * </p> <p align="justify">
+     *     Le liste delle città sono ad accesso diretto, per cui le posizioni vengono assegnate in un'unica scansione.
+     * </p>
+     * @param hotels la lista di hotel di una città
+     */
+    static void rank(List<Hotel> hotels) {
+        // Ordino la lista confrontando i rankings degli hotel: la lista è ordinata in ordine non crescente
+        hotels.sort(Comparator.comparingInt(Hotel::getRanking).reversed());
+        // Assegno a ciascun hotel così ordinato la posizione corrispondente nella classifica
+        for (int i = 0; i < hotels.size(); i++) hotels.get(i).setRank(i + 1);
+    }
+
+    /**
+     * Restituisce la cache delle risposte alle richieste di sola lettura.
+     * @return la cache delle risposte
+     */
+    ReplyCache getReplyCache() { return replyCache; }
+
+    /**
+     * <p align="justify">
+     *     Pubblica la classifica della città indicata, sostituendo in un'unica operazione quella letta dalle richieste.
+     *     Deve essere invocato con la lista di hotel già ordinata e sincronizzata.
+     * </p>
+     * @param city la città
+     * @param hotels la lista ordinata di hotel della città
+     */
+    void publish(String city, List<Hotel> hotels) {
+        // La classifica viene costruita all'interno dell'operazione atomica, così da non sovrascrivere descrizioni
+        // aggiornate nel frattempo da una nuova recensione
+        snapshots.compute(city, (key, snapshot) -> new RankingSnapshot(hotels));
+        replyCache.invalidate(ReplyCache.key(Method.SEARCHALL, city));
     }
 
     /**
@@ -462,47 +864,103 @@ public class HOTELIERServer extends RemoteServer implements RMIHOTELIERServer, H
     private void rankingAlgorithm(Hotel hotel, long time) {
         double partial = 0;
         double weight = 0;
-        int mod_time; // mod_time è il tempo trascorso dal tempo di pubblicazione della recensione
-
-        // Per ciascuna review nella lista, calcola la funzione per aggiornare il ranking ed eventualmente la classifica
-        for (Review review: reviews.get(hotel.getName())) {
-            mod_time = (int) (time - review.getTime())/1000; // divido per 1000 per ottenere i secondi
-            partial += (review.getRate() * 20)/(1 + mod_time); // moltiplico il punteggio per 20 così da scalarlo nel range [0, 100]
-            if (review.getnUpvotes() > 0)
-                weight += (int) (Math.log(review.getnUpvotes()) / Math.log(2)); // calcolo il logaritmo in base 2 dei voti
+
+        // Sincronizzo sulla lista così da non leggerla durante l'inserimento di una recensione per lo stesso hotel
+        ReviewList list = reviews.get(hotel.getName());
+        synchronized (list) {
+            // Per ciascuna review nella lista, calcola la funzione per aggiornare il ranking ed eventualmente la classifica
+            for (Review review: list) {
+                partial += reviewScore(review, time);
+                weight += upvoteScore(review.getnUpvotes());
+            }
+            // Assegno il nuovo ranking ottenuto all'hotel, sommando i valori ottenuti e arrotondo a intero la somma
+            hotel.setRanking((int) Math.round(list.size() + partial + weight));
         }
-        // Assegno il nuovo ranking ottenuto all'hotel, sommando i valori ottenuti e arrotondo a intero la somma
-        hotel.setRanking((int) Math.round(reviews.get(hotel.getName()).size() + partial + weight));
+    }
+
+
+    /**
+     * Calcola il contributo <i> R<sub>i</sub>/(1 + t) </i> della recensione indicata al punteggio del suo hotel.
+     * @param review la recensione
+     * @param time il tempo corrente in millisecondi
+     * @return il contributo della recensione
+     */
+    static double reviewScore(Review review, long time) {
+        // mod_time è il tempo trascorso dal tempo di pubblicazione della recensione
+        int mod_time = (int) ((time - review.getTime())/1000); // divido per 1000 per ottenere i secondi
+        return (review.getRate() * 20)/(1 + mod_time); // moltiplico il punteggio per 20 così da scalarlo nel range [0, 100]
+    }
+
+    /**
+     * Calcola il contributo <i> U<sub>i</sub> </i> dei voti utili di una recensione al punteggio del suo hotel.
+     * @param upvotes il numero di voti utili della recensione
+     * @return il contributo dei voti
+     */
+    static int upvoteScore(int upvotes) {
+        return (upvotes > 0)? (int) (Math.log(upvotes) / Math.log(2)) : 0; // calcolo il logaritmo in base 2 dei voti
     }
 
 
     // Metodi per il backup
     /**
      * <p align="justify">
-     *     Effettua il backup degli utenti sul file indicato.
+     *     Aggiunge alle liste indicate una copia degli utenti e degli hotel nell'istante corrente, che non cambia con
+     *     le modifiche successive (vedi {@link User#snapshot(boolean)} e {@link Hotel#snapshot()}). Il tempo richiesto
+     *     è proporzionale al numero di utenti e hotel, non al numero di recensioni. Se l'archivio delle recensioni è
+     *     abilitato, le copie degli utenti non contengono le recensioni e vengono segnate le dimensioni correnti
+     *     dell'archivio (vedi {@link ReviewStore#mark()}).
+     * </p> <p align="justify">
+     *     Deve essere invocato con le modifiche sospese (vedi {@link WriteAheadLog#checkpoint(Runnable)}), così che le
+     *     copie siano consistenti tra loro; la serializzazione delle copie avviene poi senza bloccare le richieste.
      * </p>
-     * @param objectMapper l'object mapper per la serializzazione dei dati
+     * @param users la lista per le copie degli utenti
+     * @param hotels la lista per le copie degli hotel
+     */
+    void capture(List<User> users, List<Hotel> hotels) {
+        for (User user: this.users.values()) users.add(user.snapshot(reviewStore == null));
+        for (Hotel hotel: this.hotels.values()) hotels.add(hotel.snapshot());
+        if (reviewStore != null) reviewStore.mark();
+    }
+
+    /**
+     * <p align="justify">
+     *     Conferma le recensioni dell'archivio, se è abilitato, fino alle dimensioni segnate con
+     *     {@link #capture(List, List)}, con il numero di sequenza indicato.
+     * </p>
+     * @param sequence il numero di sequenza del backup
+     * @throws IOException se non è possibile confermare le recensioni
+     */
+    public void reviewsBackup(long sequence) throws IOException {
+        if (reviewStore != null) reviewStore.commit(sequence);
+    }
+
+    /**
+     * <p align="justify">
+     *     Effettua il backup degli utenti indicati sul file indicato, con il numero di sequenza indicato.
+     * </p>
+     * @param objectWriter l'object writer per la serializzazione dei dati
      * @param file il file di destinazione per il backup
+     * @param sequence il numero di sequenza del backup
+     * @param users le copie degli utenti ottenute con {@link #capture(List, List)}
      * @throws IOException
      */
-    public void usersBackup(ObjectMapper objectMapper, File file) throws IOException {
-        synchronized (users) {
-            objectMapper.writeValue(file, users.values());
-        }
+    public void usersBackup(ObjectWriter objectWriter, File file, long sequence, List<User> users) throws IOException {
+        Snapshot.write(objectWriter, file, Snapshot.USER, new Snapshot<>(sequence, users));
     }
 
     /**
      * <p align="justify">
-     *     Effettua il backup degli hotels sul file indicato.
+     *     Effettua il backup degli hotels indicati sul file indicato, con il numero di sequenza indicato.
      * </p>
-     * @param objectMapper l'object mapper per la serializzazione dei dati
+     * @param objectWriter l'object writer per la serializzazione dei dati
      * @param file il file di destinazione per il backup
+     * @param sequence il numero di sequenza del backup
+     * @param hotels le copie degli hotel ottenute con {@link #capture(List, List)}
      * @throws IOException
      */
-    public void hotelsBackup(ObjectMapper objectMapper, File file) throws IOException {
-        synchronized (hotels) {
-            objectMapper.writeValue(file, hotels.values());
-        }
+    public void hotelsBackup(ObjectWriter objectWriter, File file, long sequence, List<Hotel> hotels)
+            throws IOException {
+        Snapshot.write(objectWriter, file, Snapshot.HOTEL, new Snapshot<>(sequence, hotels));
     }
 
 
@@ -530,4 +988,23 @@ public class HOTELIERServer extends RemoteServer implements RMIHOTELIERServer, H
     public static String printCurrentDate() {
         return new SimpleDateFormat("yyyy/MM/dd HH:mm:ss").format(new Date(System.currentTimeMillis()));
     }
+
+
+    /**
+     * <p align="justify">
+     *     La classe {@code Subscription} rappresenta la registrazione di un client al servizio di notifica: le città di
+     *     interesse e il numero di primi classificati da notificare.
+     * </p>
+     */
+    private static class Subscription {
+        /** Città di interesse */
+        final List<String> cities;
+        /** Numero di primi classificati da notificare per ciascuna città */
+        final int limit;
+
+        Subscription(List<String> cities, int limit) {
+            this.cities = cities;
+            this.limit = limit;
+        }
+    }
 }
\ No newline at end of file
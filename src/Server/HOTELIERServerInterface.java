@@ -2,6 +2,8 @@ package Server;
 
 import MyExceptions.*;
 
+import java.io.IOException;
+
 
 /**
  *  L'interfaccia {@code HOTELIERServerInterface} definisce l'insieme di servizi offerti dal server.
@@ -80,10 +82,11 @@ public interface HOTELIERServerInterface {
      * @throws InvalidCityException se la città non è una di quelle selezionabili previste
      * @throws InvalidScoreException se i punteggi non sono conformi, cioè non sono compresi tra 0 e 5
      * @throws ReviewAlreadyPostedException se l'utente ha già postato di recente una recensione per la stessa struttura
+     * @throws IOException se non è possibile registrare la recensione sul log delle modifiche
      */
     void insertReview(String hotel, String city, double score, double[] scores, String username)
             throws InvalidHotelException, UserNotRegisteredException, UserNotLoggedInException, InvalidCityException,
-            InvalidScoreException, ReviewAlreadyPostedException;
+            InvalidScoreException, ReviewAlreadyPostedException, IOException;
 
     /**
      * <p align="justify">
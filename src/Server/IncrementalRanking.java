@@ -0,0 +1,241 @@
+package Server;
+
+import Server.Database.Hotel.Hotel;
+import Server.Database.Review;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+
+/**
+ * <p align="justify">
+ *     La classe {@code IncrementalRanking} aggiorna i ranking degli hotel in modo incrementale: a ogni aggiornamento
+ *     vengono ricalcolati solo i punteggi degli hotel che hanno ricevuto recensioni o voti o il cui punteggio sta
+ *     ancora variando nel tempo, e vengono riordinate solo le classifiche delle città in cui è cambiato un punteggio.
+ * </p> <p align="justify">
+ *     Il punteggio di un hotel è quello di {@link HOTELIERServer#rankingAlgorithm}: il numero di recensioni e il
+ *     contributo dei voti utili vengono mantenuti esatti a ogni recensione o voto. Il contributo delle recensioni,
+ *     che decresce con la loro età, viene calcolato esattamente per le recensioni pubblicate negli ultimi
+ *     {@value #HORIZON} secondi; le recensioni più vecchie vengono aggregate in intervalli di tempo di ampiezza al più
+ *     pari a {@value #SPAN} volte la loro età, ciascuno approssimato da un'unica recensione con l'età media pesata sul
+ *     punteggio. Gli intervalli crescono geometricamente con l'età, per cui il loro numero è logaritmico nell'età
+ *     della recensione più vecchia, e l'approssimazione sottostima il contributo di ciascun intervallo al più del
+ *     {@code SPAN²/(4(1 + SPAN))}, cioè dell'1,25%. Quando le recensioni di un hotel sono tutte più vecchie e il loro
+ *     contributo scende sotto {@value #EPSILON}, viene trascurato e il punteggio dell'hotel non viene più ricalcolato
+ *     fino alla recensione o al voto successivo.
+ * </p> <p align="justify">
+ *     Lo stato del punteggio di ciascun hotel è sincronizzato sullo stato stesso e la classifica di ciascuna città
+ *     sulla sua lista di hotel, così che recensioni e voti per hotel diversi non si blocchino a vicenda. Gli
+ *     aggiornamenti sono sincronizzati su questo oggetto.
+ * </p>
+ */
+class IncrementalRanking {
+    /** Età in secondi oltre la quale il contributo di una recensione viene approssimato */
+    static final long HORIZON = 3600;
+    /** Ampiezza massima di un intervallo di recensioni aggregate, in rapporto alla sua età */
+    private static final double SPAN = 0.25;
+    /** Contributo approssimato sotto il quale viene trascurato */
+    private static final double EPSILON = 0.5;
+
+    /** Server per cui vengono pubblicate le classifiche */
+    private final HOTELIERServer server;
+    /** Classifiche locali del server, riordinate a ogni aggiornamento */
+    private final Map<String, List<Hotel>> localRanking;
+    /** Stato del punteggio di ciascun hotel */
+    private final Map<Hotel, Score> scores;
+    /** Hotel il cui punteggio deve essere ricalcolato al prossimo aggiornamento */
+    private final Set<Hotel> live;
+    /** Città la cui classifica deve essere riordinata al prossimo aggiornamento */
+    private final Set<String> changed;
+    /** Classifiche restituite dall'ultimo aggiornamento */
+    private final HashMap<String, ArrayList<String>> names;
+    /** Tempo di riferimento in millisecondi per le età medie */
+    private final long epoch;
+
+    /**
+     * <p align="justify">
+     *     Costruisce lo stato dei punteggi a partire dalle recensioni indicate. Al primo aggiornamento vengono calcolati
+     *     i punteggi di tutti gli hotel.
+     * </p>
+     * @param server il server per cui pubblicare le classifiche
+     * @param localRanking le classifiche locali per città
+     * @param reviews le recensioni di ciascun hotel, in ordine decrescente di data
+     */
+    IncrementalRanking(HOTELIERServer server, Map<String, List<Hotel>> localRanking,
+                       Map<String, ? extends List<Review>> reviews) {
+        this.server = server;
+        this.localRanking = localRanking;
+        this.scores = new HashMap<>();
+        this.live = ConcurrentHashMap.newKeySet();
+        this.changed = new HashSet<>(localRanking.keySet());
+        this.names = new HashMap<>();
+        this.epoch = System.currentTimeMillis();
+        for (List<Hotel> hotels: localRanking.values()) for (Hotel hotel: hotels) {
+            Score score = new Score();
+            // Le recensioni più recenti sono in testa alla lista
+            for (Review review: reviews.get(hotel.getName())) {
+                score.reviews++;
+                score.weight += HOTELIERServer.upvoteScore(review.getnUpvotes());
+                score.recent.addFirst(review);
+            }
+            scores.put(hotel, score);
+            live.add(hotel);
+        }
+    }
+
+
+    /**
+     * Registra la pubblicazione della recensione indicata per l'hotel indicato.
+     * @param hotel l'hotel recensito
+     * @param review la recensione
+     */
+    void onReview(Hotel hotel, Review review) {
+        Score score = scores.get(hotel);
+        synchronized (score) {
+            score.reviews++;
+            score.recent.addLast(review);
+        }
+        live.add(hotel);
+    }
+
+    /**
+     * Registra un nuovo voto per una recensione dell'hotel indicato.
+     * @param hotel l'hotel recensito
+     * @param upvotes il numero di voti della recensione, compreso il nuovo voto
+     */
+    void onUpvote(Hotel hotel, int upvotes) {
+        Score score = scores.get(hotel);
+        int weight = HOTELIERServer.upvoteScore(upvotes) - HOTELIERServer.upvoteScore(upvotes - 1);
+        if (weight == 0) return; // il punteggio non cambia
+        synchronized (score) {
+            score.weight += weight;
+        }
+        live.add(hotel);
+    }
+
+    /**
+     * <p align="justify">
+     *     Ricalcola i punteggi degli hotel che sono cambiati e riordina e pubblica le classifiche delle città
+     *     corrispondenti, assegnando le posizioni agli hotel.
+     * </p>
+     * @param time il tempo corrente in millisecondi
+     * @return la classifica aggiornata degli hotel per ogni città; le liste delle città la cui classifica non è stata
+     * riordinata sono le stesse dell'aggiornamento precedente
+     */
+    synchronized HashMap<String, ArrayList<String>> update(long time) {
+        for (Hotel hotel: new ArrayList<>(live)) {
+            // Rimuovo l'hotel prima di ricalcolarne il punteggio: una recensione o un voto concorrenti lo reinseriscono
+            live.remove(hotel);
+            Score score = scores.get(hotel);
+            int ranking;
+            synchronized (score) {
+                ranking = (int) Math.round(score.compute(time));
+                if (!score.isSettled()) live.add(hotel);
+            }
+            if (ranking != hotel.getRanking()) {
+                hotel.setRanking(ranking);
+                changed.add(hotel.getCity());
+            }
+        }
+        for (String city: changed) {
+            List<Hotel> hotels = localRanking.get(city);
+            synchronized (hotels) {
+                HOTELIERServer.rank(hotels);
+                server.publish(city, hotels);
+                names.put(city, new ArrayList<>(hotels.stream().map(Hotel::getName).toList()));
+            }
+        }
+        changed.clear();
+        return new HashMap<>(names);
+    }
+
+
+    /**
+     * <p align="justify">
+     *     La classe {@code Score} rappresenta lo stato del punteggio di un hotel.
+     * </p>
+     */
+    private class Score {
+        /** Numero di recensioni */
+        int reviews = 0;
+        /** Contributo dei voti utili */
+        int weight = 0;
+        /** Recensioni più recenti di {@link #HORIZON}, in ordine di pubblicazione */
+        final ArrayDeque<Review> recent = new ArrayDeque<>();
+        /** Intervalli delle recensioni più vecchie, in ordine di pubblicazione */
+        final ArrayDeque<Bucket> buckets = new ArrayDeque<>();
+
+        /**
+         * Calcola il punteggio dell'hotel al tempo indicato.
+         * @param time il tempo corrente in millisecondi
+         * @return il punteggio non arrotondato
+         */
+        double compute(long time) {
+            double now = (time - epoch) / 1000.0; // tempo corrente in secondi rispetto al tempo di riferimento
+            // Sposto le recensioni che hanno superato l'orizzonte in un nuovo intervallo
+            Review review;
+            while ((review = recent.peekFirst()) != null && (time - review.getTime()) / 1000 >= HORIZON) {
+                recent.pollFirst();
+                buckets.addLast(new Bucket(review.getRate() * 20, (review.getTime() - epoch) / 1000.0));
+            }
+            double partial = 0;
+            for (Review element: recent) partial += HOTELIERServer.reviewScore(element, time);
+            if (!buckets.isEmpty()) {
+                // Unisco gli intervalli consecutivi finché l'ampiezza dell'unione resta entro SPAN volte la sua età
+                ArrayDeque<Bucket> merged = new ArrayDeque<>(buckets.size());
+                for (Bucket bucket: buckets) {
+                    Bucket last = merged.peekLast();
+                    if (last != null && bucket.last - last.first <= SPAN * (now - bucket.last)) last.merge(bucket);
+                    else merged.addLast(bucket);
+                }
+                buckets.clear();
+                buckets.addAll(merged);
+                double approximated = 0;
+                for (Bucket bucket: buckets)
+                    if (bucket.rate > 0) approximated += bucket.rate / (1 + now - bucket.rateTime / bucket.rate);
+                if (approximated >= EPSILON) partial += approximated;
+                else buckets.clear();
+            }
+            return reviews + partial + weight;
+        }
+
+        /**
+         * Indica se il punteggio non varia più nel tempo.
+         * @return {@code true} se il punteggio dipende solo da nuove recensioni o voti, {@code false} altrimenti
+         */
+        boolean isSettled() { return recent.isEmpty() && buckets.isEmpty(); }
+    }
+
+    /**
+     * <p align="justify">
+     *     La classe {@code Bucket} rappresenta un intervallo di recensioni aggregate. I tempi sono in secondi rispetto
+     *     al tempo di riferimento.
+     * </p>
+     */
+    private static class Bucket {
+        /** Somma dei punteggi delle recensioni */
+        double rate;
+        /** Somma dei tempi di pubblicazione delle recensioni, pesati sul punteggio */
+        double rateTime;
+        /** Tempo di pubblicazione della prima recensione */
+        final double first;
+        /** Tempo di pubblicazione dell'ultima recensione */
+        double last;
+
+        Bucket(double rate, double time) {
+            this.rate = rate;
+            this.rateTime = rate * time;
+            this.first = this.last = time;
+        }
+
+        /**
+         * Aggiunge a questo intervallo le recensioni dell'intervallo successivo indicato.
+         * @param bucket l'intervallo successivo
+         */
+        void merge(Bucket bucket) {
+            rate += bucket.rate;
+            rateTime += bucket.rateTime;
+            last = bucket.last;
+        }
+    }
+}
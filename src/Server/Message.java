@@ -2,7 +2,12 @@ package Server;
 
 import Client.HOTELIERClient;
 
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 
 import static Server.Message.Reply.Session.*;
 import static Server.Message.Request.Method.*;
@@ -22,6 +27,81 @@ public class Message {
      * </p>
      */
     public static class Request {
+        /** Separatore dei parametri */
+        private static final byte SPACE = ' ';
+        /** Delimitatore dei parametri che contengono spazi */
+        private static final byte QUOTE = '"';
+
+        /** Servizio richiesto ({@code null} se non riconosciuto) */
+        public final Method method;
+        /** Parametri della richiesta */
+        public final String[] args;
+
+        private Request(Method method, String[] args) {
+            this.method = method;
+            this.args = args;
+        }
+
+        /**
+         * <p align="justify">
+         *     Analizza il messaggio di richiesta contenuto in {@code bytes}, in un'unica scansione e senza espressioni
+         *     regolari. Il servizio è indicato dai byte che precedono il primo spazio, mentre i parametri sono separati
+         *     dagli spazi esterni alle virgolette, che vengono rimosse.
+         * </p> <p align="justify">
+         *     Uno spazio è considerato un separatore solo se è seguito da un numero pari di virgolette, così che anche
+         *     i messaggi malformati vengano suddivisi come in precedenza; per questo motivo le virgolette vengono
+         *     prima contate.
+         * </p>
+         * @param bytes i byte del messaggio
+         * @param offset la posizione del primo byte del messaggio
+         * @param length la lunghezza del messaggio in byte
+         * @param charset la codifica dei parametri
+         * @return la richiesta, con servizio {@code null} e nessun parametro se il messaggio non è ben formato
+         */
+        public static Request parse(byte[] bytes, int offset, int length, Charset charset) {
+            int end = offset + length;
+            int i = offset;
+            while (i < end && bytes[i] != SPACE) i++;
+            if (i == end) return new Request(null, new String[0]);
+            Method method = Method.fetchMethod(bytes, offset, i - offset);
+
+            // I parametri iniziano dopo lo spazio e le eventuali virgolette di apertura
+            int start = i + 1;
+            if (start < end && bytes[start] == QUOTE) start++;
+            if (start == end) return new Request(method, new String[] {""});
+            // Numero di virgolette da scandire
+            int quotes = 0;
+            for (int j = start; j < end; j++) if (bytes[j] == QUOTE) quotes++;
+
+            List<String> args = new ArrayList<>(8);
+            int token = start;
+            for (int p = start; p <= end; ) {
+                // Fine del separatore che inizia in p, -1 se non è presente
+                int next = -1;
+                if (p == end) next = end;
+                else if (bytes[p] == QUOTE) {
+                    // Virgolette di chiusura seguite dalla fine del messaggio o da un separatore
+                    if (p + 1 == end) next = end;
+                    else if (bytes[p + 1] == SPACE && (quotes - 1) % 2 == 0) next = p + 2;
+                } else if (bytes[p] == SPACE && quotes % 2 == 0) next = p + 1;
+
+                if (next < 0) {
+                    if (bytes[p++] == QUOTE) quotes--;
+                    continue;
+                }
+                // Virgolette di apertura del parametro successivo
+                if (next < end && bytes[next] == QUOTE) next++;
+                args.add(new String(bytes, token, p - token, charset));
+                if (p == end) break;
+                for (; p < next; p++) if (bytes[p] == QUOTE) quotes--;
+                token = next;
+            }
+            // Come per String.split(), i parametri vuoti finali vengono scartati
+            int size = args.size();
+            while (size > 0 && args.get(size - 1).isEmpty()) size--;
+            return new Request(method, args.subList(0, size).toArray(new String[0]));
+        }
+
         /**
          * <p align="justify">
          *     Definisce il messaggio di richiesta da inviare al server in base al comando e ai parametri indicati.
@@ -44,6 +124,9 @@ public class Message {
                 // message = SEARCHALL city
                 case SEARCHALL -> (args.length == SEARCHALL.parameters)?
                         SEARCHALL.method + " " + args[0]: "";
+                // message = TOPK city k
+                case TOPK -> (args.length == TOPK.parameters)?
+                        TOPK.method + " " + args[0] + " " + args[1] : "";
                 // message = INSERTREVIEW user:username hotel city score scores
                 case INSERTREVIEW -> (args.length == INSERTREVIEW.parameters)?
                         INSERTREVIEW.method + " " +  USER.session + args[0] + " \"" + args[1] + "\" \"" + args[2] + "\" " + args[3]
@@ -51,18 +134,31 @@ public class Message {
                 // message = SHOWMYBADGES user:username
                 case SHOWMYBADGES -> (args.length == SHOWMYBADGES.parameters)?
                         SHOWMYBADGES.method + " " + USER.session + args[0] : "";
-                // message = SHOWREVIEWS hotel city
+                // message = SHOWREVIEWS hotel city limit [cursor]
                 case SHOWREVIEWS -> (args.length == SHOWREVIEWS.parameters)?
-                        SHOWREVIEWS.method + " \"" + args [0] + "\" " + args[1] : "";
+                        SHOWREVIEWS.method + " \"" + args [0] + "\" " + args[1] + getPage(args[2], args[3]) : "";
                 // message = UPVOTE #review
                 case UPVOTE -> (args.length == UPVOTE.parameters)? UPVOTE.method + " " + args[0] : "";
-                // message = SHOWMYREVIEWS user:username
+                // message = SHOWMYREVIEWS user:username limit [cursor]
                 case SHOWMYREVIEWS -> (args.length == SHOWMYREVIEWS.parameters)?
-                        SHOWMYREVIEWS.method + " " + USER.session + args[0] : "";
+                        SHOWMYREVIEWS.method + " " + USER.session + args[0] + getPage(args[1], args[2]) : "";
                 default -> "";
             };
         }
 
+        /**
+         * <p align="justify">
+         *     Restituisce i parametri di paginazione da aggiungere al messaggio di richiesta: il numero massimo di
+         *     recensioni della pagina e, se presente, il cursore ricevuto con la pagina precedente.
+         * </p>
+         * @param limit il numero massimo di recensioni
+         * @param cursor il cursore, {@code null} per la prima pagina
+         * @return i parametri di paginazione
+         */
+        private static String getPage(Object limit, Object cursor) {
+            return " " + limit + ((cursor != null)? " " + cursor : "");
+        }
+
 
         /**
          * La classe {@code Method} rappresenta l'insieme di servizi che possono essere richiesti al server.
@@ -70,6 +166,7 @@ public class Message {
          * @see #LOGOUT
          * @see #SEARCH
          * @see #SEARCHALL
+         * @see #TOPK
          * @see #INSERTREVIEW
          * @see #SHOWMYBADGES
          * @see #UPVOTE
@@ -89,6 +186,9 @@ public class Message {
             /** <p> Metodo per la ricerca degli hotel per città </p>
              * Richiede un parametro. */
             SEARCHALL("SEARCHALL", 1),
+            /** <p> Metodo per la ricerca dei primi hotel in classifica per città </p>
+             * Richiede due parametri: città e numero di hotel. */
+            TOPK("TOPK", 2),
             /** <p> Metodo per la pubblicazione di una recensione </p>
              * Richiede cinque parametri. */
             INSERTREVIEW("INSERTREVIEW", 5),
@@ -96,14 +196,16 @@ public class Message {
              * Richiede un parametro. */
             SHOWMYBADGES("SHOWMYBADGES", 1),
             /** <p> Metodo per la visualizzazione delle recensioni di un hotel </p>
-             * Richiede due parametri. */
-            SHOWREVIEWS("SHOWREVIEWS", 2),
+             * Richiede quattro parametri: hotel, città, numero di recensioni della pagina e cursore (opzionale).
+             * Senza gli ultimi due vengono restituite tutte le recensioni. */
+            SHOWREVIEWS("SHOWREVIEWS", 4),
             /** <p> Metodo per la votazione di una recensione </p>
              * Richiede un parametro. */
             UPVOTE("UPVOTE", 1),
             /** <p> Metodo per la visualizzazione delle recensioni pubblicate </p>
-             * Richiede un parametro. */
-            SHOWMYREVIEWS("SHOWMYREVIEWS", 1);
+             * Richiede tre parametri: utente, numero di recensioni della pagina e cursore (opzionale).
+             * Senza gli ultimi due vengono restituite tutte le recensioni. */
+            SHOWMYREVIEWS("SHOWMYREVIEWS", 3);
 
             /** Metodo */
             private final String method;
@@ -119,6 +221,75 @@ public class Message {
                 for (Method method: Method.values()) if (method.method.equals(constant)) return method;
                 return null;
             }
+
+            /**
+             * Restituisce il metodo rappresentato dai byte indicati, senza decodificarli.
+             * @param bytes i byte del messaggio
+             * @param offset la posizione del primo byte del metodo
+             * @param length la lunghezza del metodo in byte
+             * @return il metodo corrispondente, {@code null} se non esiste
+             */
+            public static Method fetchMethod(byte[] bytes, int offset, int length) {
+                search:
+                for (Method method: Method.values()) {
+                    if (method.method.length() != length) continue;
+                    for (int i = 0; i < length; i++) if (method.method.charAt(i) != bytes[offset + i]) continue search;
+                    return method;
+                }
+                return null;
+            }
+        }
+    }
+
+
+    /**
+     * <p align="justify">
+     *     La classe {@code Frame} specifica il formato a lunghezza prefissata dei messaggi, in cui ogni messaggio
+     *     è preceduto da un'intestazione di {@value #HEADER} byte che ne indica la lunghezza in byte.
+     * </p> <p align="justify">
+     *     Il formato viene negoziato all'apertura della connessione: il client invia il {@link #PREAMBLE} e il server,
+     *     se lo supporta, risponde con lo stesso preambolo. I client che non lo inviano continuano a usare il formato
+     *     testuale, in cui un messaggio corrisponde ai dati letti dal canale.
+     * </p>
+     */
+    public static class Frame {
+        /** Preambolo per la negoziazione (il primo byte non può comparire all'inizio di un messaggio testuale) */
+        private static final byte[] PREAMBLE = {0, 'H', 'T', 1};
+        /** Dimensione dell'intestazione di un messaggio */
+        public static final int HEADER = Integer.BYTES;
+        /** Dimensione massima di un messaggio di richiesta */
+        public static final int MAX_REQUEST = 1 << 16;
+
+        public static int getPreambleSize() { return PREAMBLE.length; }
+
+        /**
+         * Restituisce un buffer in modalità lettura contenente il preambolo per la negoziazione.
+         * @return il buffer contenente il preambolo
+         */
+        public static ByteBuffer preamble() { return ByteBuffer.wrap(PREAMBLE.clone()); }
+
+        /**
+         * <p align="justify">
+         *     Determina se i dati nel buffer indicato, a partire dalla posizione corrente, iniziano con il preambolo.
+         * </p>
+         * @param buffer il buffer in modalità lettura con almeno {@link #getPreambleSize()} byte disponibili
+         * @return {@code true} se i dati corrispondono al preambolo, {@code false} altrimenti
+         */
+        public static boolean isPreamble(ByteBuffer buffer) {
+            for (int i = 0; i < PREAMBLE.length; i++) if (buffer.get(buffer.position() + i) != PREAMBLE[i]) return false;
+            return true;
+        }
+
+        /**
+         * <p align="justify">
+         *     Codifica il messaggio indicato, preceduto dalla sua lunghezza.
+         * </p>
+         * @param message il messaggio da codificare
+         * @return il buffer in modalità lettura contenente il messaggio codificato
+         */
+        public static ByteBuffer encode(String message) {
+            byte[] bytes = message.getBytes(StandardCharsets.UTF_8);
+            return ByteBuffer.allocate(HEADER + bytes.length).putInt(bytes.length).put(bytes).flip();
         }
     }
 
@@ -216,16 +387,12 @@ public class Message {
 
         /**
          * <p align="justify">
-         *     La classe {@code Session} è l'insieme degli elementi che forniscono informazioni relative al tipo di
-         *     sessione in uso e vanno sempre seguiti da un identificatore: nome utente o indirizzo IP per un guest.
+         *     La classe {@code Session} è l'insieme degli elementi che forniscono informazioni relative alla sessione
+         *     in uso e vanno sempre seguiti da un identificatore, il nome utente.
          * </p>
-         * @see #SESSION
-         * @see #GUEST
          * @see #USER
          */
         public enum Session {
-            SESSION("session:"),
-            GUEST("guest:"),
             USER("user:");
 
             public final String session;
@@ -42,6 +42,20 @@ public interface RMIHOTELIERServer extends Remote {
      */
     List<List<String>> registerForCallback(CallbackHOTELIERClient stub, List<String> cities) throws RemoteException;
 
+    /**
+     * <p>
+     *     Registra il client al servizio di notifica tramite callback per i soli primi hotel in classifica.
+     * </p>
+     * @param stub il riferimento all'oggetto remoto del client
+     * @param cities la lista di città per cui si richiede la notifica tramite callback
+     * @param limit il numero di primi classificati da ricevere per ciascuna città, non superiore al numero di hotel
+     * @return una lista contenente in ordine di città le liste dei primi hotel delle stesse città indicate o
+     * {@code null} se c'è stato un errore e non è stata specificata alcuna città o un numero di hotel non valido
+     * @throws RemoteException
+     */
+    List<List<String>> registerForCallback(CallbackHOTELIERClient stub, List<String> cities, int limit)
+            throws RemoteException;
+
     /**
      * <p>
      *     Cancella la registrazione del client dal servizio di notifica tramite callback.
@@ -56,7 +56,7 @@ public class RankingHandler extends Thread {
                 // Dopo l'aggiornamento, per ogni città controllo se la classifica è rimasta invariata
                 for (String city: localRanking.keySet()) if (!hotels.get(city).equals(localRanking.get(city))) {
                     // Notifico i client che hanno registrato interesse per quella città (perché si è aggiornata la classifica)
-                    server.update(city);
+                    server.update(city, localRanking.get(city));
                     // Controllo se è cambiato il primo classificato per inviare un messaggio sul gruppo di multicast
                     if (!hotels.get(city).get(0).equals(localRanking.get(city).get(0)))
                         sendMessage(city, localRanking.get(city).get(0), hotels.get(city).get(0));
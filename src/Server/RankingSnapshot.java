@@ -0,0 +1,102 @@
+package Server;
+
+import Server.Database.Hotel.Hotel;
+
+import java.util.*;
+
+
+/**
+ * <p align="justify">
+ *     La classe {@code RankingSnapshot} rappresenta la classifica locale di una città in un certo istante: i nomi degli
+ *     hotel in ordine di classifica e le loro descrizioni già formattate per le risposte ai client.
+ * </p> <p align="justify">
+ *     Un'istanza non viene mai modificata dopo la costruzione, per cui può essere letta da più thread senza
+ *     sincronizzazione. Ogni aggiornamento della classifica o dei dati di un hotel costruisce una nuova istanza, che
+ *     sostituisce la precedente.
+ * </p>
+ */
+class RankingSnapshot {
+    /** Nomi degli hotel in ordine di classifica */
+    final List<String> names;
+    /** Descrizioni degli hotel in ordine di classifica */
+    private final String[] strings;
+    /** Posizioni degli hotel nella classifica, a partire da 0 */
+    private final Map<String, Integer> positions; // lista di coppie <nome hotel, posizione>
+
+    /**
+     * Costruisce la classifica a partire dalla lista di hotel indicata, già ordinata.
+     * @param hotels la lista ordinata degli hotel della città
+     */
+    RankingSnapshot(List<Hotel> hotels) {
+        String[] names = new String[hotels.size()];
+        this.strings = new String[hotels.size()];
+        this.positions = new HashMap<>(hotels.size() * 2);
+        for (int i = 0; i < strings.length; i++) {
+            Hotel hotel = hotels.get(i);
+            names[i] = hotel.getName();
+            strings[i] = hotel.toString();
+            positions.put(names[i], i);
+        }
+        this.names = List.of(names);
+    }
+
+    /**
+     * Costruisce una copia della classifica indicata con le descrizioni indicate.
+     * @param snapshot la classifica da copiare
+     * @param strings le nuove descrizioni degli hotel
+     */
+    private RankingSnapshot(RankingSnapshot snapshot, String[] strings) {
+        this.names = snapshot.names;
+        this.strings = strings;
+        this.positions = snapshot.positions;
+    }
+
+
+    /**
+     * <p align="justify">
+     *     Restituisce una copia di questa classifica in cui la descrizione dell'hotel indicato è aggiornata ai suoi
+     *     dati correnti. L'ordine della classifica non cambia.
+     * </p>
+     * @param hotel l'hotel aggiornato
+     * @return la classifica aggiornata, o questa stessa classifica se l'hotel non ne fa parte
+     */
+    RankingSnapshot update(Hotel hotel) {
+        Integer position = positions.get(hotel.getName());
+        if (position == null) return this;
+        String[] strings = this.strings.clone();
+        strings[position] = hotel.toString();
+        return new RankingSnapshot(this, strings);
+    }
+
+    /**
+     * Restituisce le descrizioni di tutti gli hotel della città in ordine di classifica, una per riga.
+     * @return la stringa che rappresenta la classifica
+     */
+    String render() {
+        return String.join("\n", strings);
+    }
+
+    /**
+     * Restituisce le descrizioni dei primi hotel della città in ordine di classifica, una per riga.
+     * @param limit il numero di hotel
+     * @return la stringa che rappresenta i primi {@code limit} hotel della classifica
+     */
+    String render(int limit) {
+        return String.join("\n", Arrays.asList(strings).subList(0, Math.min(limit, strings.length)));
+    }
+
+    /**
+     * Restituisce le descrizioni degli hotel indicati in ordine di classifica, una per riga.
+     * @param hotels gli hotel da descrivere, che devono far parte della classifica
+     * @return la stringa che rappresenta gli hotel
+     */
+    String render(Collection<Hotel> hotels) {
+        int[] selected = new int[hotels.size()];
+        int i = 0;
+        for (Hotel hotel: hotels) selected[i++] = positions.get(hotel.getName());
+        Arrays.sort(selected);
+        StringJoiner joiner = new StringJoiner("\n");
+        for (int position: selected) joiner.add(strings[position]);
+        return joiner.toString();
+    }
+}
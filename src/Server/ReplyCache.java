@@ -0,0 +1,199 @@
+package Server;
+
+import Server.Message.Request.Method;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+
+/**
+ * <p align="justify">
+ *     La classe {@code ReplyCache} conserva le risposte alle richieste di sola lettura più frequenti (la classifica di
+ *     una città e le recensioni di un hotel), già codificate nei formati in uso sulle connessioni, così che una
+ *     richiesta ripetuta venga servita accodando il buffer della risposta senza elaborarla né codificarla.
+ * </p> <p align="justify">
+ *     Le risposte sono raggruppate per chiave (la città o l'hotel a cui fanno riferimento) e, all'interno di una
+ *     chiave, per l'insieme dei parametri della richiesta, ad esempio le diverse pagine delle recensioni di un hotel;
+ *     per ogni chiave vengono conservate al più {@value #VARIANTS} risposte.
+ * </p> <p align="justify">
+ *     Le risposte di una chiave vengono invalidate insieme quando cambiano i dati su cui si basano. Ogni chiave ha un
+ *     numero di generazione, incrementato a ogni invalidazione: una risposta costruita prima di un'invalidazione
+ *     concorrente non viene memorizzata, per cui non viene mai restituita una risposta non aggiornata.
+ * </p> <p align="justify">
+ *     Le operazioni sono atomiche per ciascuna chiave e le letture non sono bloccanti.
+ * </p>
+ */
+class ReplyCache {
+    /** Separatore dei parametri nelle chiavi */
+    private static final char SEPARATOR = '\0';
+    /** Numero massimo di risposte conservate per ciascuna chiave */
+    private static final int VARIANTS = 16;
+
+    /** Struttura dati per le risposte */
+    private final Map<String, Entry> entries; // lista di coppie <chiave della richiesta, risposta>
+
+    ReplyCache() {
+        this.entries = new ConcurrentHashMap<>();
+    }
+
+
+    /**
+     * <p align="justify">
+     *     Restituisce la chiave della richiesta con il metodo e i parametri indicati, se la sua risposta può essere
+     *     conservata. La chiave dipende solo dai parametri che individuano la città o l'hotel.
+     * </p> <p align="justify">
+     *     Le risposte di {@link Method#TOPK} hanno la stessa chiave di quelle di {@link Method#SEARCHALL}, perché
+     *     dipendono dalla stessa classifica e vengono invalidate insieme; i parametri le distinguono all'interno della
+     *     chiave.
+     * </p>
+     * @param method il metodo della richiesta
+     * @param args i parametri della richiesta
+     * @return la chiave della richiesta, {@code null} se la risposta non può essere conservata
+     */
+    static String key(Method method, String... args) {
+        if (method == null) return null;
+        return switch (method) {
+            case SEARCHALL, TOPK -> Method.SEARCHALL.name() + SEPARATOR + args[0];
+            case SHOWREVIEWS -> method.name() + SEPARATOR + args[0] + SEPARATOR + args[1];
+            default -> null;
+        };
+    }
+
+    /**
+     * Restituisce la risposta conservata per la chiave e i parametri indicati.
+     * @param key la chiave della richiesta
+     * @param args i parametri della richiesta
+     * @return la risposta o {@code null} se non è presente o è stata invalidata
+     */
+    Reply get(String key, String... args) {
+        Entry entry = entries.get(key);
+        return (entry != null)? entry.replies.get(variant(args)) : null;
+    }
+
+    /**
+     * <p align="justify">
+     *     Restituisce la generazione corrente della chiave indicata, da leggere prima di costruire la risposta da
+     *     conservare con {@link #put(String, long, String[], String)}.
+     * </p>
+     * @param key la chiave della richiesta
+     * @return la generazione della chiave
+     */
+    long generation(String key) {
+        Entry entry = entries.get(key);
+        return (entry != null)? entry.generation : 0;
+    }
+
+    /**
+     * <p align="justify">
+     *     Codifica la risposta indicata e la conserva per la chiave e i parametri indicati, se nel frattempo la chiave
+     *     non è stata invalidata e non ha già il numero massimo di risposte. Altrimenti la risposta non viene
+     *     codificata qui, ma con i buffer del pool della connessione (vedi {@link ReplyEncoder}).
+     * </p>
+     * @param key la chiave della richiesta
+     * @param generation la generazione della chiave letta prima di costruire la risposta
+     * @param args i parametri della richiesta
+     * @param message il messaggio di risposta
+     * @return la risposta codificata, se è stata conservata, altrimenti il messaggio di risposta
+     */
+    CharSequence put(String key, long generation, String[] args, String message) {
+        String variant = variant(args);
+        Reply[] stored = new Reply[1];
+        entries.compute(key, (k, entry) -> {
+            if (entry == null) {
+                if (generation != 0) return null;
+                stored[0] = new Reply(message);
+                return new Entry(generation, Map.of(variant, stored[0]));
+            }
+            if (entry.generation != generation || entry.replies.size() >= VARIANTS) return entry;
+            // Le risposte di una chiave non vengono mai modificate, ne costruisco una copia con la nuova risposta
+            Map<String, Reply> replies = new HashMap<>(entry.replies);
+            replies.put(variant, stored[0] = new Reply(message));
+            return new Entry(generation, replies);
+        });
+        return (stored[0] != null)? stored[0] : message;
+    }
+
+    /**
+     * Invalida la risposta conservata per la chiave indicata.
+     * @param key la chiave della richiesta
+     */
+    void invalidate(String key) {
+        entries.compute(key, (k, entry) -> new Entry((entry != null)? entry.generation + 1 : 1, Map.of()));
+    }
+
+    /**
+     * Restituisce la stringa che individua i parametri indicati all'interno di una chiave.
+     * @param args i parametri della richiesta
+     * @return la stringa dei parametri
+     */
+    private static String variant(String... args) {
+        return String.join(String.valueOf(SEPARATOR), args);
+    }
+
+
+    /**
+     * <p align="justify">
+     *     La classe {@code Entry} rappresenta le risposte conservate per una chiave con la sua generazione.
+     * </p>
+     */
+    private static class Entry {
+        /** Generazione della chiave */
+        final long generation;
+        /** Risposte per ciascun insieme di parametri, vuota se la chiave è stata invalidata */
+        final Map<String, Reply> replies; // lista di coppie <parametri della richiesta, risposta>
+
+        Entry(long generation, Map<String, Reply> replies) {
+            this.generation = generation;
+            this.replies = replies;
+        }
+    }
+
+    /**
+     * <p align="justify">
+     *     La classe {@code Reply} rappresenta un messaggio di risposta con le sue codifiche per i formati in uso sulle
+     *     connessioni, in buffer diretti di sola lettura. Come sequenza di caratteri corrisponde al messaggio.
+     * </p>
+     */
+    static class Reply implements CharSequence {
+        /** Messaggio di risposta */
+        private final String message;
+        /** Messaggio codificato nel formato a lunghezza prefissata, con l'intestazione */
+        private final ByteBuffer framed;
+        /** Messaggio codificato nel formato testuale */
+        private final ByteBuffer text;
+
+        Reply(String message) {
+            this.message = message;
+            byte[] bytes = message.getBytes(StandardCharsets.UTF_8);
+            ByteBuffer framed = ByteBuffer.allocateDirect(Message.Frame.HEADER + bytes.length);
+            framed.putInt(bytes.length).put(bytes).flip();
+            this.framed = framed.asReadOnlyBuffer();
+            // Entrambi i formati sono codificati in UTF-8: il formato testuale condivide i byte del messaggio
+            this.text = this.framed.slice(Message.Frame.HEADER, bytes.length);
+        }
+
+        /**
+         * Restituisce un buffer in modalità lettura con il messaggio codificato nel formato indicato.
+         * @param protocol il formato in uso sulla connessione
+         * @return un nuovo buffer che condivide i byte del messaggio
+         */
+        ByteBuffer encoded(Connection.Protocol protocol) {
+            return ((protocol == Connection.Protocol.FRAMED)? framed : text).duplicate();
+        }
+
+        @Override
+        public int length() { return message.length(); }
+
+        @Override
+        public char charAt(int index) { return message.charAt(index); }
+
+        @Override
+        public CharSequence subSequence(int start, int end) { return message.subSequence(start, end); }
+
+        @Override
+        public String toString() { return message; }
+    }
+}
@@ -0,0 +1,108 @@
+package Server;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.Queue;
+
+
+/**
+ * <p align="justify">
+ *     La classe {@code ReplyEncoder} codifica i messaggi di risposta direttamente nei buffer di un {@link BufferPool},
+ *     senza copie intermedie, nel formato in uso sulla connessione.
+ * </p> <p align="justify">
+ *     Un messaggio che non entra in un solo buffer viene suddiviso su più buffer consecutivi, che vengono poi inviati
+ *     insieme con un'unica scrittura. Nel formato a lunghezza prefissata l'intestazione viene riservata all'inizio del
+ *     primo buffer e scritta al termine della codifica.
+ * </p> <p align="justify">
+ *     Non è thread-safe: ogni reactor ha un proprio encoder, usato solo dal suo thread.
+ * </p>
+ */
+class ReplyEncoder {
+    /** Segmento vuoto, per segnalare la fine del messaggio */
+    private static final CharBuffer EMPTY = CharBuffer.allocate(0);
+
+    /** Pool da cui vengono presi i buffer */
+    private final BufferPool pool;
+    /** Encoder dei messaggi, in UTF-8 in entrambi i formati come le richieste e come il client */
+    private final CharsetEncoder encoder = newEncoder(StandardCharsets.UTF_8);
+
+    ReplyEncoder(BufferPool pool) {
+        this.pool = pool;
+    }
+
+
+    /**
+     * <p align="justify">
+     *     Codifica il messaggio di risposta, composto dai segmenti indicati (stato ed esito della richiesta, eventuale
+     *     contenuto), e accoda i buffer ottenuti a quelli da inviare sulla connessione indicata.
+     * </p> <p align="justify">
+     *     Una risposta già codificata ({@link ReplyCache.Reply}) viene accodata senza essere codificata di nuovo.
+     * </p>
+     * @param connection la connessione su cui inviare la risposta
+     * @param segments i segmenti del messaggio di risposta, nell'ordine
+     */
+    void encode(Connection connection, CharSequence... segments) {
+        if (segments.length == 1 && segments[0] instanceof ReplyCache.Reply reply) {
+            connection.output.add(reply.encoded(connection.protocol));
+            return;
+        }
+        boolean isFramed = connection.protocol == Connection.Protocol.FRAMED;
+        encoder.reset();
+
+        ByteBuffer first = pool.acquire();
+        if (isFramed) first.position(Message.Frame.HEADER); // riservo lo spazio per l'intestazione
+        ByteBuffer buffer = first;
+        int length = 0; // numero di byte del messaggio
+        // Dopo l'ultimo segmento, segnalo la fine del messaggio e svuoto lo stato interno dell'encoder
+        for (int i = 0; i < segments.length + 2; i++) {
+            CharBuffer input = (i < segments.length)? CharBuffer.wrap(segments[i]) : EMPTY;
+            while ((i <= segments.length)? encoder.encode(input, buffer, i == segments.length).isOverflow()
+                    : encoder.flush(buffer).isOverflow()) {
+                // Il buffer è pieno, lo accodo e proseguo su un nuovo buffer
+                length += buffer.position();
+                connection.output.add(buffer.flip());
+                buffer = pool.acquire();
+            }
+        }
+        length += buffer.position();
+        connection.output.add(buffer.flip());
+        if (isFramed) first.putInt(0, length - Message.Frame.HEADER);
+    }
+
+    /**
+     * <p align="justify">
+     *     Rilascia il buffer indicato, restituendolo al pool se ne fa parte.
+     * </p>
+     * @param buffer il buffer inviato
+     */
+    void release(ByteBuffer buffer) {
+        pool.release(buffer);
+    }
+
+    /**
+     * <p align="justify">
+     *     Rilascia i buffer indicati, restituendo al pool quelli che ne fanno parte.
+     * </p>
+     * @param buffers i buffer da rilasciare
+     */
+    void release(Queue<ByteBuffer> buffers) {
+        ByteBuffer buffer;
+        while ((buffer = buffers.poll()) != null) pool.release(buffer);
+    }
+
+    /**
+     * Restituisce un encoder per la codifica indicata, che sostituisce i caratteri non rappresentabili come
+     * {@link String#getBytes(Charset)}.
+     * @param charset la codifica
+     * @return l'encoder
+     */
+    private static CharsetEncoder newEncoder(Charset charset) {
+        return charset.newEncoder().onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    }
+}
@@ -0,0 +1,90 @@
+package Server;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * <p align="justify">
+ *     La classe {@code SessionRegistry} rappresenta l'insieme delle sessioni degli utenti che hanno effettuato
+ *     l'accesso, indicizzate per nome utente, così che la verifica dell'accesso di un utente avvenga in tempo costante.
+ * </p> <p align="justify">
+ *     Ogni utente ha al più una sessione aperta. Ogni sessione ha un identificatore univoco, per cui una connessione
+ *     può chiudere la propria sessione senza chiudere quella aperta in seguito dallo stesso utente su un'altra
+ *     connessione.
+ * </p> <p align="justify">
+ *     Le operazioni sono atomiche e non richiedono sincronizzazione esterna.
+ * </p>
+ */
+class SessionRegistry {
+    /** Struttura dati per le sessioni aperte */
+    private final Map<String, Session> sessions; // lista di coppie <nome utente, sessione>
+    /** Identificatore dell'ultima sessione aperta */
+    private final AtomicLong lastId;
+
+    SessionRegistry() {
+        this.sessions = new ConcurrentHashMap<>();
+        this.lastId = new AtomicLong();
+    }
+
+
+    /**
+     * Apre una nuova sessione per l'utente indicato, se non ne ha già una aperta.
+     * @param user il nome utente
+     * @return la nuova sessione o {@code null} se l'utente ha già una sessione aperta
+     */
+    Session open(String user) {
+        Session session = new Session(user, lastId.incrementAndGet());
+        return (sessions.putIfAbsent(user, session) == null)? session : null;
+    }
+
+    /**
+     * Chiude la sessione aperta dall'utente indicato.
+     * @param user il nome utente
+     * @return {@code true} se l'utente aveva una sessione aperta, {@code false} altrimenti
+     */
+    boolean close(String user) {
+        return sessions.remove(user) != null;
+    }
+
+    /**
+     * Chiude la sessione indicata, se è ancora aperta.
+     * @param session la sessione
+     * @return {@code true} se la sessione era aperta, {@code false} altrimenti
+     */
+    boolean close(Session session) {
+        return sessions.remove(session.user, session);
+    }
+
+    /**
+     * Verifica se l'utente indicato ha una sessione aperta.
+     * @param user il nome utente
+     * @return {@code true} se l'utente ha effettuato l'accesso, {@code false} altrimenti
+     */
+    boolean contains(String user) {
+        return sessions.containsKey(user);
+    }
+
+
+    /**
+     * <p align="justify">
+     *     La classe {@code Session} rappresenta la sessione aperta da un utente con l'accesso, mantenuta dalla
+     *     connessione su cui è stato effettuato.
+     * </p>
+     */
+    static final class Session {
+        /** Nome utente */
+        final String user;
+        /** Identificatore univoco della sessione */
+        final long id;
+
+        private Session(String user, long id) {
+            this.user = user;
+            this.id = id;
+        }
+
+        @Override
+        public String toString() { return user + "#" + id; }
+    }
+}
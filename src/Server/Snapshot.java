@@ -0,0 +1,311 @@
+package Server;
+
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+import com.fasterxml.jackson.annotation.JsonPropertyOrder;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+
+import Server.Database.Hotel.Hotel;
+import Server.Database.User;
+
+
+/**
+ * <p align="justify">
+ *     La classe {@code Snapshot} rappresenta il contenuto di un file di backup: il numero di sequenza del backup e gli
+ *     elementi salvati, nel formato {@code {"sequence": n, "data": [...]}}.
+ * </p> <p align="justify">
+ *     Un backup viene scritto su un file temporaneo, sincronizzato sul disco e rinominato in modo atomico, per cui un
+ *     file con il nome definitivo è sempre completo e un crash durante la scrittura non danneggia il backup precedente.
+ *     All'avvio il backup più recente viene scelto in base al numero di sequenza contenuto nel file, non alla data di
+ *     ultima modifica.
+ * </p> <p align="justify">
+ *     I file che contengono solo l'array degli elementi (i file di configurazione e i backup delle versioni precedenti)
+ *     vengono letti con numero di sequenza {@code 0}.
+ * </p> <p align="justify">
+ *     Il formato di un file dipende dalla sua estensione: {@value #JSON} per il formato JSON e {@value #BINARY} per il
+ *     formato binario, più compatto e più rapido da scrivere e leggere. Un file binario contiene un'intestazione con
+ *     il numero di sequenza e il numero di elementi, gli elementi scritti dal loro metodo {@code write(DataOutput)}
+ *     (vedi {@link Kind}) e una chiusura che ne verifica la completezza.
+ * </p> <p align="justify">
+ *     Nel formato JSON la lettura del file resta sequenziale, ma gli elementi vengono deserializzati in parallelo a
+ *     blocchi di {@value #CHUNK} sul pool fork-join comune, con al più due blocchi in attesa per thread del pool, se
+ *     è disponibile più di un processore.
+ * </p>
+ * @param <T> il tipo degli elementi salvati
+ */
+@JsonPropertyOrder({Snapshot.SEQUENCE, Snapshot.DATA})
+class Snapshot<T> {
+    /** Nome del campo con il numero di sequenza */
+    static final String SEQUENCE = "sequence";
+    /** Nome del campo con gli elementi */
+    static final String DATA = "data";
+    /** Estensione dei file temporanei */
+    static final String TEMP = ".tmp";
+    /** Estensione dei file in formato JSON */
+    static final String JSON = ".json";
+    /** Estensione dei file in formato binario */
+    static final String BINARY = ".bin";
+    /** Intestazione e chiusura dei file in formato binario */
+    private static final int MAGIC = 0x48544C42; // "HTLB"
+    /** Versione del formato binario */
+    private static final byte VERSION = 1;
+    /** Dimensione dei buffer per i file in formato binario */
+    private static final int BUFFER_SIZE = 64 * 1024;
+    /** Numero di elementi deserializzati da ciascun task nel formato JSON */
+    private static final int CHUNK = 512;
+
+    /** Tipo degli elementi dei backup degli hotel */
+    static final Kind<Hotel> HOTEL = new Kind<>(Hotel.class, Hotel::write, Hotel::read);
+    /** Tipo degli elementi dei backup degli utenti */
+    static final Kind<User> USER = new Kind<>(User.class, User::write, User::read);
+
+    /** Numero di sequenza del backup */
+    final long sequence;
+    /** Elementi salvati */
+    final Collection<T> data;
+
+    Snapshot(long sequence, Collection<T> data) {
+        this.sequence = sequence;
+        this.data = data;
+    }
+
+
+    /**
+     * Verifica se il file indicato è in uno dei formati dei file di backup.
+     * @param filename il nome o l'estensione del file
+     * @return {@code true} se il formato è supportato, {@code false} altrimenti
+     */
+    static boolean supported(String filename) {
+        return filename.endsWith(JSON) || filename.endsWith(BINARY);
+    }
+
+    /**
+     * Legge il numero di sequenza del file di backup indicato, senza leggere gli elementi.
+     * @param mapper l'object mapper per la deserializzazione dei dati
+     * @param file il file di backup
+     * @return il numero di sequenza del backup
+     * @throws IOException se il file non è un file di backup
+     */
+    static long sequence(ObjectMapper mapper, File file) throws IOException {
+        if (file.getName().endsWith(BINARY)) try (DataInputStream input = new DataInputStream(new FileInputStream(file))) {
+            return readHeader(input);
+        }
+        try (JsonParser parser = mapper.createParser(file)) {
+            return readSequence(parser);
+        }
+    }
+
+    /**
+     * <p align="justify">
+     *     Legge il file di backup indicato e ne verifica la completezza: il file deve terminare con la chiusura
+     *     dell'array degli elementi.
+     * </p>
+     * @param mapper l'object mapper per la deserializzazione dei dati
+     * @param file il file di backup
+     * @param kind il tipo degli elementi
+     * @return il contenuto del file
+     * @param <T> il tipo degli elementi
+     * @throws IOException se il file non è un file di backup o è incompleto
+     */
+    static <T> Snapshot<T> read(ObjectMapper mapper, File file, Kind<T> kind) throws IOException {
+        if (file.getName().endsWith(BINARY)) try (DataInputStream input = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE))) {
+            long sequence = readHeader(input);
+            int size = input.readInt();
+            List<T> data = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) data.add(kind.decoder.read(input));
+            if (input.readInt() != MAGIC) throw new IOException("incomplete backup file " + file.getName());
+            return new Snapshot<>(sequence, data);
+        } catch (EOFException e) {
+            throw new IOException("incomplete backup file " + file.getName());
+        }
+
+        try (JsonParser parser = mapper.createParser(file)) {
+            long sequence = readSequence(parser);
+            List<T> data = new ArrayList<>();
+            // Copio i token di ciascun elemento e li deserializzo a blocchi in parallelo, in ordine, limitando i
+            // blocchi in attesa così da non tenere in memoria i token dell'intero file. Con un solo processore la
+            // copia dei token è solo un costo aggiuntivo, per cui deserializzo gli elementi direttamente
+            boolean parallel = Runtime.getRuntime().availableProcessors() > 1;
+            int limit = 2 * ForkJoinPool.getCommonPoolParallelism();
+            Deque<ForkJoinTask<List<T>>> tasks = new ArrayDeque<>();
+            List<TokenBuffer> chunk = new ArrayList<>(CHUNK);
+            JsonToken token;
+            while ((token = parser.nextToken()) == JsonToken.START_OBJECT) {
+                if (!parallel) {
+                    data.add(parser.readValueAs(kind.type));
+                    continue;
+                }
+                TokenBuffer buffer = new TokenBuffer(parser);
+                buffer.copyCurrentStructure(parser);
+                chunk.add(buffer);
+                if (chunk.size() < CHUNK) continue;
+                tasks.add(decode(mapper, kind, chunk));
+                chunk = new ArrayList<>(CHUNK);
+                if (tasks.size() > limit) data.addAll(join(tasks.poll()));
+            }
+            if (!chunk.isEmpty()) tasks.add(decode(mapper, kind, chunk));
+            while (!tasks.isEmpty()) data.addAll(join(tasks.poll()));
+            if (token != JsonToken.END_ARRAY) throw new IOException("incomplete backup file " + file.getName());
+            return new Snapshot<>(sequence, data);
+        }
+    }
+
+    /**
+     * Avvia sul pool fork-join comune la deserializzazione degli elementi indicati.
+     * @param mapper l'object mapper per la deserializzazione dei dati
+     * @param kind il tipo degli elementi
+     * @param chunk i token degli elementi
+     * @return il task che restituisce gli elementi, nello stesso ordine
+     * @param <T> il tipo degli elementi
+     */
+    private static <T> ForkJoinTask<List<T>> decode(ObjectMapper mapper, Kind<T> kind, List<TokenBuffer> chunk) {
+        return ForkJoinPool.commonPool().submit(() -> {
+            List<T> data = new ArrayList<>(chunk.size());
+            for (TokenBuffer buffer: chunk) try (JsonParser parser = buffer.asParser(mapper)) {
+                data.add(mapper.readValue(parser, kind.type));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return data;
+        });
+    }
+
+    /**
+     * Attende il completamento del task indicato e ne restituisce gli elementi.
+     * @param task il task di deserializzazione
+     * @return gli elementi deserializzati
+     * @param <T> il tipo degli elementi
+     * @throws IOException se non è possibile deserializzare uno degli elementi
+     */
+    private static <T> List<T> join(ForkJoinTask<List<T>> task) throws IOException {
+        try {
+            return task.join();
+        } catch (RuntimeException e) {
+            // L'eccezione può essere ricreata dal pool nel thread che attende, cerco l'errore di lettura originale
+            for (Throwable cause = e; cause != null; cause = cause.getCause())
+                if (cause instanceof IOException exception) throw exception;
+            throw e;
+        }
+    }
+
+    /**
+     * <p align="justify">
+     *     Scrive il backup indicato su un file temporaneo nella stessa directory del file indicato, lo sincronizza sul
+     *     disco e lo rinomina in modo atomico nel file indicato.
+     * </p>
+     * @param writer l'object writer per la serializzazione dei dati
+     * @param file il file di destinazione per il backup
+     * @param kind il tipo degli elementi
+     * @param snapshot il backup
+     * @param <T> il tipo degli elementi
+     * @throws IOException se non è possibile scrivere o rinominare il file
+     */
+    static <T> void write(ObjectWriter writer, File file, Kind<T> kind, Snapshot<T> snapshot) throws IOException {
+        File temp = new File(file.getPath() + TEMP);
+        try (FileOutputStream output = new FileOutputStream(temp)) {
+            if (file.getName().endsWith(BINARY)) {
+                DataOutputStream data = new DataOutputStream(new BufferedOutputStream(output, BUFFER_SIZE));
+                data.writeInt(MAGIC);
+                data.writeByte(VERSION);
+                data.writeLong(snapshot.sequence);
+                data.writeInt(snapshot.data.size());
+                for (T item: snapshot.data) kind.encoder.write(item, data);
+                data.writeInt(MAGIC);
+                data.flush();
+            } else writer.without(JsonGenerator.Feature.AUTO_CLOSE_TARGET).writeValue(output, snapshot);
+            output.getFD().sync();
+        }
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        // Sincronizzo la directory, così che anche la rinomina sia salvata sul disco
+        try (FileChannel directory = FileChannel.open(file.getAbsoluteFile().getParentFile().toPath(),
+                StandardOpenOption.READ)) {
+            directory.force(true);
+        } catch (IOException ignored) {} // non tutti i sistemi operativi permettono di sincronizzare una directory
+    }
+
+    /**
+     * Legge l'intestazione di un file in formato binario e ne restituisce il numero di sequenza.
+     * @param input lo stream del file
+     * @return il numero di sequenza del backup
+     * @throws IOException se il file non è un file di backup
+     */
+    private static long readHeader(DataInputStream input) throws IOException {
+        try {
+            if (input.readInt() != MAGIC || input.readByte() != VERSION) throw new IOException("invalid backup file");
+            return input.readLong();
+        } catch (EOFException e) {
+            throw new IOException("invalid backup file");
+        }
+    }
+
+    /**
+     * Legge il numero di sequenza del backup e posiziona il parser sull'inizio dell'array degli elementi.
+     * @param parser il parser del file di backup
+     * @return il numero di sequenza del backup
+     * @throws IOException se il file non è un file di backup
+     */
+    private static long readSequence(JsonParser parser) throws IOException {
+        JsonToken token = parser.nextToken();
+        if (token == JsonToken.START_ARRAY) return 0;
+        long sequence = -1;
+        if (token == JsonToken.START_OBJECT && SEQUENCE.equals(parser.nextFieldName())
+                && parser.nextToken() == JsonToken.VALUE_NUMBER_INT) sequence = parser.getLongValue();
+        if (sequence < 0 || !DATA.equals(parser.nextFieldName()) || parser.nextToken() != JsonToken.START_ARRAY)
+            throw new IOException("invalid backup file");
+        return sequence;
+    }
+
+
+    /**
+     * <p align="justify">
+     *     La classe {@code Kind} rappresenta il tipo degli elementi di un backup, con la classe usata per il formato
+     *     JSON e i metodi di scrittura e lettura per il formato binario.
+     * </p>
+     * @param <T> il tipo degli elementi
+     */
+    static final class Kind<T> {
+        /** Classe degli elementi */
+        final Class<T> type;
+        /** Metodo di scrittura nel formato binario */
+        final Encoder<T> encoder;
+        /** Metodo di lettura dal formato binario */
+        final Decoder<T> decoder;
+
+        private Kind(Class<T> type, Encoder<T> encoder, Decoder<T> decoder) {
+            this.type = type;
+            this.encoder = encoder;
+            this.decoder = decoder;
+        }
+    }
+
+    /**
+     * <p align="justify">
+     *     L'interfaccia {@code Encoder} rappresenta il metodo di scrittura di un elemento nel formato binario.
+     * </p>
+     */
+    private interface Encoder<T> {
+        void write(T item, DataOutput out) throws IOException;
+    }
+
+    /**
+     * <p align="justify">
+     *     L'interfaccia {@code Decoder} rappresenta il metodo di lettura di un elemento dal formato binario.
+     * </p>
+     */
+    private interface Decoder<T> {
+        T read(DataInput in) throws IOException;
+    }
+}
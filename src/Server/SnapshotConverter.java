@@ -0,0 +1,68 @@
+package Server;
+
+import java.io.File;
+import java.io.IOException;
+
+import com.fasterxml.jackson.annotation.JsonAutoDetect;
+import com.fasterxml.jackson.annotation.PropertyAccessor;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+
+/**
+ * <p align="justify">
+ *     La classe {@code SnapshotConverter} converte un file di backup degli hotel o degli utenti da un formato all'altro
+ *     (vedi {@link Snapshot}), in base all'estensione dei file indicati, conservandone il numero di sequenza.
+ * </p> <p align="justify">
+ *     Uso: {@code java Server.SnapshotConverter hotel|user <file di origine> <file di destinazione>}
+ * </p>
+ */
+public class SnapshotConverter {
+    static final String HOTEL_OPTION = "hotel";
+    static final String USER_OPTION = "user";
+
+    public static void main(String[] args) {
+        if (args.length != 3 || !(args[0].equals(HOTEL_OPTION) || args[0].equals(USER_OPTION))
+                || !Snapshot.supported(args[1]) || !Snapshot.supported(args[2])) {
+            System.out.println("usage: java Server.SnapshotConverter " + HOTEL_OPTION + "|" + USER_OPTION
+                    + " <source" + Snapshot.JSON + "|" + Snapshot.BINARY + "> <target" + Snapshot.JSON + "|"
+                    + Snapshot.BINARY + ">");
+            System.exit(1);
+        }
+
+        // Definisco l'object mapper con le stesse proprietà usate dal server, con la formattazione indentata
+        ObjectMapper objectMapper = new ObjectMapper();
+        objectMapper.setVisibility(PropertyAccessor.ALL, JsonAutoDetect.Visibility.NONE);
+        objectMapper.setVisibility(PropertyAccessor.FIELD, JsonAutoDetect.Visibility.ANY);
+        objectMapper.enable(SerializationFeature.INDENT_OUTPUT);
+
+        try {
+            long start = System.currentTimeMillis();
+            long size = (args[0].equals(HOTEL_OPTION))
+                    ? convert(objectMapper, Snapshot.HOTEL, new File(args[1]), new File(args[2]))
+                    : convert(objectMapper, Snapshot.USER, new File(args[1]), new File(args[2]));
+            System.out.println(size + " elements have been converted in " + (System.currentTimeMillis() - start)
+                    + " ms (" + new File(args[1]).length() + " -> " + new File(args[2]).length() + " bytes)");
+        } catch (IOException e) {
+            System.out.println(e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Converte il file di backup indicato nel formato del file di destinazione.
+     * @param objectMapper l'object mapper per la serializzazione e la deserializzazione dei dati
+     * @param kind il tipo degli elementi
+     * @param source il file di origine
+     * @param target il file di destinazione
+     * @return il numero di elementi convertiti
+     * @param <T> il tipo degli elementi
+     * @throws IOException se non è possibile leggere o scrivere i file
+     */
+    private static <T> int convert(ObjectMapper objectMapper, Snapshot.Kind<T> kind, File source, File target)
+            throws IOException {
+        Snapshot<T> snapshot = Snapshot.read(objectMapper, source, kind);
+        Snapshot.write(objectMapper.writer(), target, kind, snapshot);
+        return snapshot.data.size();
+    }
+}
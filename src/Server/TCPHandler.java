@@ -2,14 +2,18 @@ package Server;
 
 import MyExceptions.*;
 import Server.Database.Hotel.*;
+import Server.Database.ReviewList;
 import Server.Message.Request.Method;
 
 import java.io.IOException;
 import java.net.InetSocketAddress;
+import java.net.ProtocolException;
 import java.nio.ByteBuffer;
 import java.nio.channels.*;
-import java.nio.charset.*;
 import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import static Server.Message.Reply.Session.*;
 import static Server.Message.Reply.Error.*;
@@ -22,29 +26,55 @@ import static Server.Message.Request.Method.*;
  * <p align="justify">
  *     La classe {@code TCPHandler} estende la classe {@link Thread} e si occupa della gestione delle connessioni TCP
  *     con i client che richiedono i servizi offerti dal server.
+ * </p> <p align="justify">
+ *     L'istanza costruita con la porta di ascolto svolge il ruolo di acceptor: accetta le nuove connessioni e le
+ *     assegna a turno (round-robin) a un insieme di reactor, istanze di questa stessa classe, ciascuna con il proprio
+ *     selettore e il proprio event loop, che si occupano della lettura delle richieste e della scrittura delle risposte.
+ * </p> <p align="justify">
+ *     Se è definito un pool di thread per le richieste, il reactor si limita alla lettura e alla scrittura sui canali,
+ *     mentre l'elaborazione viene delegata al pool, che restituisce la risposta al reactor una volta pronta.
  * </p>
  */
 public class TCPHandler extends Thread {
     /** Porta di ascolto per la richiesta di connessioni */
     public static int listening_port;
-    /** Codifica di caratteri in uso */
-    private static final Charset CHARSET = StandardCharsets.UTF_8;
-    /** Dimensione del buffer */
-    private static final int capacity = 1024; // costante
+    /** Numero massimo di buffer scritti sul canale con un'unica operazione di scrittura */
+    private static final int GATHER = 64;
 
     /** Canale di ascolto per richieste di connessioni TCP */
-    private final ServerSocketChannel serverChannel;
+    private final ServerSocketChannel serverChannel; // null per i reactor
     /** Selettore per la gestione delle client sockets */
     private final Selector selector;
     /** Istanza del server per l'elaborazione delle richieste */
     private final HOTELIERServer server;
-    /** Buffer per la gestione dei messaggi */
-    private ByteBuffer buffer = ByteBuffer.allocate(capacity);
+    /** Reactor a cui vengono assegnate le connessioni accettate */
+    private final TCPHandler[] reactors; // vuoto per i reactor
+    /** Operazioni da eseguire sul thread di questo reactor (registrazione di canali, invio di risposte) */
+    private final Queue<Runnable> tasks;
+    /** Pool di thread per l'elaborazione delle richieste, null se vengono elaborate dal thread del reactor */
+    private final ExecutorService executor;
+    /** Encoder delle risposte nei buffer del pool di questo reactor */
+    private final ReplyEncoder encoder; // null per l'acceptor
+    /** Buffer da scrivere sul canale con un'unica operazione di scrittura */
+    private final ByteBuffer[] gather = new ByteBuffer[GATHER];
+    /** Indice del prossimo reactor a cui assegnare una connessione */
+    private int next = 0;
 
-    public TCPHandler(HOTELIERServer server, int listening_port) throws IOException {
+    public TCPHandler(HOTELIERServer server, int listening_port, int n_reactors, int n_threads,
+                      int buffer_pool_size, int buffer_size) throws IOException {
+        super("acceptor");
         // Assegno i parametri alle variabili
         TCPHandler.listening_port = listening_port;
         this.server = server;
+        this.tasks = new ConcurrentLinkedQueue<>();
+        this.encoder = null;
+        // Se richiesto, definisco il pool di thread condiviso dai reactor per l'elaborazione delle richieste
+        this.executor = (n_threads > 0)? Executors.newFixedThreadPool(n_threads) : null;
+        // Se non è indicato un numero di reactor valido, ne uso uno per ciascun core disponibile
+        if (n_reactors <= 0) n_reactors = Runtime.getRuntime().availableProcessors();
+        this.reactors = new TCPHandler[n_reactors];
+        for (int i = 0; i < n_reactors; i++) this.reactors[i] = new TCPHandler(server, i, executor,
+                new BufferPool(buffer_pool_size, buffer_size));
         // Apro la server socket channel alla listening port
         this.serverChannel = ServerSocketChannel.open();
         this.serverChannel.bind(new InetSocketAddress(listening_port));
@@ -53,14 +83,41 @@ public class TCPHandler extends Thread {
         // Apro il selettore e registro la server socket channel appena definita con operazione di interesse OP_ACCEPT
         this.selector = Selector.open();
         this.serverChannel.register(selector, SelectionKey.OP_ACCEPT);
-        System.out.println(HOTELIERServer.printCurrentDate() + "\tserver is listening for connections on port " + listening_port);
+        System.out.println(HOTELIERServer.printCurrentDate() + "\tserver is listening for connections on port " + listening_port
+                + " with " + n_reactors + " reactors");
+    }
+
+    /**
+     * <p align="justify">
+     *     Costruisce un reactor, con un proprio selettore su cui vengono registrati i canali assegnati dall'acceptor.
+     * </p>
+     * @param server l'istanza del server per l'elaborazione delle richieste
+     * @param id l'identificatore del reactor
+     * @param executor il pool di thread per l'elaborazione delle richieste o {@code null}
+     * @param pool il pool di buffer per l'invio delle risposte
+     * @throws IOException
+     */
+    private TCPHandler(HOTELIERServer server, int id, ExecutorService executor, BufferPool pool) throws IOException {
+        super("reactor-" + id);
+        this.server = server;
+        this.serverChannel = null;
+        this.selector = Selector.open();
+        this.reactors = new TCPHandler[0];
+        this.tasks = new ConcurrentLinkedQueue<>();
+        this.executor = executor;
+        this.encoder = new ReplyEncoder(pool);
     }
 
     @Override
     public void run() {
-        while (serverChannel.isOpen()) {
+        // Avvio i reactor prima di iniziare ad accettare le connessioni
+        for (TCPHandler reactor: reactors) reactor.start();
+        while (selector.isOpen()) {
             try {
-                if (selector.select() == 0) continue; // se non ci sono canali pronti, passo alla prossima iterazione
+                int ready = selector.select();
+                // Eseguo le operazioni richieste nel frattempo a questo reactor
+                runTasks();
+                if (ready == 0) continue; // se non ci sono canali pronti, passo alla prossima iterazione
                 // Reperisco l'insieme delle chiavi dei canali registrati pronti per una delle operazioni di I/O
                 Set<SelectionKey> selectedKeys = selector.selectedKeys();
                 Iterator<SelectionKey> keyIterator = selectedKeys.iterator();
@@ -71,22 +128,13 @@ public class TCPHandler extends Thread {
                     try {
                         // Controllo per quale operazione il canale associato alla chiave è pronto
                         if (key.isAcceptable()) handleAccept(key); // OP_ACCEPT
-                        else if (key.isReadable()) handleRead(key); // OP_READ
-                        else if (key.isWritable()) handleWrite(key); // OP_WRITE
-                    } catch (IOException e) {
-                        String atch = new String(((ByteBuffer) key.attachment()).array());
-                        String client = ((InetSocketAddress) ((SocketChannel) key.channel()).getRemoteAddress()).getHostString();
-                        // Se il client ha chiuso la connessione senza fare il logout, viene fatto in automatico
-                        if (atch.startsWith(SESSION.session)) {
-                            try {
-                                server.logout(atch.split(" ")[0].split(":")[1]);
-                                System.out.println(HOTELIERServer.printCurrentDate()
-                                        + "\t" + atch.split(" ")[0].split(":")[1] + " left");
-                            } catch (UserNotRegisteredException | UserNotLoggedInException ignored) { }
+                        else {
+                            // Il canale può essere pronto sia in lettura che in scrittura
+                            if (key.isReadable()) handleRead(key); // OP_READ
+                            if (key.isValid() && key.isWritable()) handleWrite(key); // OP_WRITE
                         }
-                        key.channel().close(); // chiudo il canale
-                        System.out.println(HOTELIERServer.printCurrentDate() + "\tconnection with client " + client + " closed");
-                        key.cancel(); // cancello la registrazione di questo canale
+                    } catch (IOException e) {
+                        abort(key);
                     }
                 }
             } catch (IOException e) {
@@ -97,12 +145,146 @@ public class TCPHandler extends Thread {
     }
 
 
+    // Metodi per la comunicazione con il thread del reactor
+    /**
+     * <p align="justify">
+     *     Richiede l'esecuzione dell'operazione indicata sul thread di questo reactor, alla successiva iterazione
+     *     dell'event loop.
+     * </p>
+     * @param task l'operazione da eseguire
+     */
+    private void post(Runnable task) {
+        tasks.add(task);
+        selector.wakeup(); // sblocco la select in corso per eseguire subito l'operazione
+    }
+
+    /**
+     * <p align="justify">
+     *     Esegue le operazioni richieste a questo reactor che sono in attesa.
+     * </p>
+     */
+    private void runTasks() {
+        Runnable task;
+        while ((task = tasks.poll()) != null) task.run();
+    }
+
+    /**
+     * <p align="justify">
+     *     Assegna a questo reactor il canale indicato, che verrà registrato con il selettore dal thread del reactor
+     *     con operazione di interesse {@link SelectionKey#OP_READ}.
+     * </p>
+     * @param client il canale della connessione accettata
+     */
+    private void assign(SocketChannel client) {
+        post(() -> {
+            try {
+                // Registro il canale al selettore, con operazione di interesse OP_READ e con come attachment lo stato
+                // della connessione, in cui la sessione iniziale è quella di un guest
+                String address = ((InetSocketAddress) client.getRemoteAddress()).getHostString();
+                client.register(selector, SelectionKey.OP_READ, new Connection(address));
+            } catch (IOException e) {
+                System.out.println(HOTELIERServer.printCurrentDate()
+                        + "\tServer.TCPHandler.assign(..): an error occurred while registering a new connection");
+            }
+        });
+    }
+
+    /**
+     * <p align="justify">
+     *     Accoda la risposta, elaborata dal pool di thread, a quelle da inviare sulla connessione associata alla chiave
+     *     indicata e prosegue con le richieste successive.
+     * </p> <p align="justify">
+     *     Se nel frattempo il canale è stato chiuso, la risposta viene scartata e, se sul client è loggato un utente,
+     *     ne effettua il logout.
+     * </p>
+     * @param key la chiave di selezione del canale
+     * @param reply la risposta da inviare
+     */
+    private void reply(SelectionKey key, CharSequence reply) {
+        Connection connection = (Connection) key.attachment();
+        connection.busy = false;
+        if (!key.isValid()) {
+            logout(connection);
+            return;
+        }
+        encoder.encode(connection, reply);
+        try {
+            dispatch(key);
+        } catch (IOException e) {
+            abort(key);
+        }
+    }
+
+    /**
+     * <p align="justify">
+     *     Registra il canale associato alla chiave indicata con le operazioni di interesse in base allo stato della
+     *     connessione: {@link SelectionKey#OP_READ} se il canale può essere letto e {@link SelectionKey#OP_WRITE} se
+     *     ci sono risposte da inviare.
+     * </p>
+     * @param key la chiave di selezione del canale
+     */
+    private void updateInterest(SelectionKey key) {
+        Connection connection = (Connection) key.attachment();
+        int ops = (connection.readable())? SelectionKey.OP_READ : 0;
+        if (!connection.output.isEmpty()) ops |= SelectionKey.OP_WRITE;
+        key.interestOps(ops);
+    }
+
+    /**
+     * <p align="justify">
+     *     Chiude il canale associato alla chiave indicata e ne cancella la registrazione con il selettore.
+     * </p> <p align="justify">
+     *     Se sul client era loggato un utente, ne effettua il logout. Se invece è in corso l'elaborazione di una
+     *     richiesta, il logout viene effettuato al suo termine, dato che la richiesta potrebbe modificare la sessione.
+     * </p>
+     * @param key la chiave di selezione del canale
+     * @throws IOException
+     */
+    private void close(SelectionKey key) throws IOException {
+        key.cancel(); // cancello la registrazione di questo canale
+        key.channel().close(); // chiudo il canale
+        if (key.attachment() instanceof Connection connection) {
+            encoder.release(connection.output); // le risposte non ancora inviate vengono scartate
+            // Se il client ha chiuso la connessione senza fare il logout, viene fatto in automatico
+            if (!connection.busy) logout(connection);
+        }
+    }
+
+    /**
+     * <p align="justify">
+     *     Chiude il canale associato alla chiave indicata a seguito di un errore nella comunicazione con il client.
+     * </p>
+     * @param key la chiave di selezione del canale
+     */
+    private void abort(SelectionKey key) {
+        try {
+            close(key);
+        } catch (IOException ignored) { }
+        if (key.attachment() instanceof Connection connection) System.out.println(
+                HOTELIERServer.printCurrentDate() + "\tconnection with client " + connection.address + " closed");
+    }
+
+    /**
+     * <p align="justify">
+     *     Effettua il logout dell'utente loggato sulla connessione indicata, se presente.
+     * </p>
+     * @param connection la connessione chiusa
+     */
+    private void logout(Connection connection) {
+        SessionRegistry.Session session = connection.session;
+        if (session == null) return;
+        if (server.closeSession(session))
+            System.out.println(HOTELIERServer.printCurrentDate() + "\t" + session.user + " left");
+    }
+
+
     // Metodi per la gestione delle operazioni sui canali pronti
     /**
      * <p align="justify">
      *     Accetta le nuove connessioni in entrata.
      * </p> <p align="justify">
-     *     Registra i canali al selettore con operazione di interesse {@link SelectionKey#OP_READ}.
+     *     Assegna i canali ai reactor a turno, che li registrano al proprio selettore con operazione di interesse
+     *     {@link SelectionKey#OP_READ}.
      * </p>
      * @param key la chiave di selezione che include il riferimento al canale pronto e registrato con il selettore
      * @throws IOException
@@ -114,57 +296,114 @@ public class TCPHandler extends Thread {
         System.out.println(HOTELIERServer.printCurrentDate() + "\tserver accepted connection with client "
                 + socketAddress.getHostString() + " on port " + socketAddress.getPort());
         client.configureBlocking(false);
-        // Registro il canale al selettore, con operazione di interesse OP_READ e con come attachment un buffer
-        // Il buffer dell'attachment contiene i messaggi appena inviati o da inviare dal server al client
-        // in cui il primo elemento è un indicatore sul tipo sessione: utente loggato o guest
-        client.register(selector, SelectionKey.OP_READ,
-                ByteBuffer.wrap((GUEST + socketAddress.getHostString()).getBytes(CHARSET)));
+        // Assegno il canale al prossimo reactor
+        reactors[next].assign(client);
+        next = (next + 1) % reactors.length;
     }
 
     /**
      * <p align="justify">
-     *     Legge i dati presenti sul canale nel buffer ed elabora la richiesta.
+     *     Legge i dati presenti sul canale nel buffer della connessione.
      * </p> <p align="justify">
-     *     Al termine, registra il canale con operazione di interesse {@link SelectionKey#OP_WRITE}.
+     *     Alla prima lettura determina il formato dei messaggi usato dal client: se i dati iniziano con il preambolo
+     *     di negoziazione, risponde con lo stesso preambolo e usa il formato a lunghezza prefissata, altrimenti quello
+     *     testuale. Successivamente elabora le richieste che sono già state ricevute per intero.
      * </p>
      * @param key la chiave di selezione che include il riferimento al canale pronto e registrato con il selettore
      * @throws IOException
      */
     private void handleRead(SelectionKey key) throws IOException {
-        // Reperisco il canale associato alla chiave indicata
+        // Reperisco il canale associato alla chiave indicata e lo stato della connessione
         SocketChannel channel = (SocketChannel) key.channel();
+        Connection connection = (Connection) key.attachment();
         int bytesRead;
-        StringBuilder request = new StringBuilder(); // per costruire la risposta
-        buffer.clear(); // torno in modalità scrittura
-        // Leggo i dati presenti sul canale nel buffer, controllando che effettivamente sia stato inviato qualcosa
-        while ((bytesRead = channel.read(buffer)) > 0) {
-            buffer.flip(); // torno in modalità lettura
-            byte[] bytes = new byte[buffer.limit()];
-            buffer.get(bytes); // copio i dati dal buffer in un array di bytes
-            request.append(new String(bytes)); // appendo la nuova stringa alla stringa costruita
-            buffer.clear(); // torno in modalità scrittura
-        }
+        // Leggo i dati presenti sul canale nel buffer della connessione, finché ce ne sono
+        while ((bytesRead = channel.read(connection.input())) > 0);
         // Controllo che non sia stata raggiunta la fine dello stream, nel caso chiudo la connessione
         if (bytesRead == -1) {
-            String client = ((InetSocketAddress) ((SocketChannel) key.channel()).getRemoteAddress()).getHostString();
-            System.out.println(HOTELIERServer.printCurrentDate() + "\tclient "+ client + " closed connection");
-            channel.close();
+            System.out.println(HOTELIERServer.printCurrentDate() + "\tclient "+ connection.address + " closed connection");
+            close(key);
+            return;
+        }
+
+        if (connection.protocol == Connection.Protocol.UNKNOWN) {
+            ByteBuffer input = connection.input;
+            if (input.position() == 0) return; // non è stato ricevuto ancora nulla
+            // Il primo byte del preambolo non può comparire all'inizio di un messaggio testuale
+            if (input.get(0) == Message.Frame.preamble().get(0)) {
+                if (input.position() < Message.Frame.getPreambleSize()) return; // attendo il resto del preambolo
+                input.flip();
+                if (!Message.Frame.isPreamble(input)) throw new ProtocolException("invalid preamble");
+                // Rimuovo il preambolo dal buffer e rispondo con lo stesso per confermare il formato
+                input.position(Message.Frame.getPreambleSize()).compact();
+                connection.protocol = Connection.Protocol.FRAMED;
+                connection.output.add(Message.Frame.preamble());
+            } else connection.protocol = Connection.Protocol.TEXT;
         }
-        else {
-            String message = request.toString(); // messaggio di richiesta
-            String attachment = new String(((ByteBuffer) key.attachment()).array()); // attachment registrato con il canale
-
-            // Divido l'attachment in due parti per prelevare il primo elemento contenente il tipo di sessione in uso
-            String session = attachment.split(" ", 2)[0];
-            // Divido il messaggio di richiesta in due parti
-            // La prima parte contiene il servizio richiesto dal client
-            Method method = fetchMethod(message.split(" \"?", 2)[0]);
-            // La seconda parte contiene i parametri per poter elaborare la richiesta
-            // (viene divisa ulteriormente a ogni spazio non contenuto tra due '"'
-            String[] msgList = message.split(" \"?", 2)[1].split("\"?( |$)(?=(([^\"]*\"){2})*[^\"]*$)\"?");
+        dispatch(key);
+    }
+
+    /**
+     * <p align="justify">
+     *     Estrae dal buffer della connessione le richieste ricevute per intero e le elabora direttamente o tramite il
+     *     pool di thread, accodando le risposte nell'ordine di arrivo delle richieste.
+     * </p> <p align="justify">
+     *     Le richieste dello stesso client vengono elaborate una alla volta, dato che possono dipendere dalla sessione
+     *     modificata da quelle precedenti: mentre una richiesta è in elaborazione sul pool di thread, le successive
+     *     restano nel buffer fino al suo termine. Il canale continua a essere letto finché non ci sono troppe risposte
+     *     in attesa di essere inviate.
+     * </p>
+     * @param key la chiave di selezione che include il riferimento al canale pronto e registrato con il selettore
+     * @throws IOException se la richiesta non rispetta il formato in uso sulla connessione
+     */
+    private void dispatch(SelectionKey key) throws IOException {
+        Connection connection = (Connection) key.attachment();
+        while (!connection.busy && connection.output.size() < Connection.MAX_PENDING) {
+            Message.Request request = connection.nextRequest();
+            if (request == null) break; // non ci sono altre richieste complete
+
+            if (executor == null) encoder.encode(connection, process(request, connection));
+            else {
+                connection.busy = true;
+                executor.execute(() -> {
+                    CharSequence reply = process(request, connection);
+                    post(() -> reply(key, reply));
+                });
+            }
+        }
+        updateInterest(key);
+    }
+
+    /**
+     * <p align="justify">
+     *     Elabora la richiesta indicata, ricevuta sulla connessione indicata.
+     * </p> <p align="justify">
+     *     Se la richiesta è un login o un logout andato a buon fine, aggiorna la sessione della connessione.
+     * </p> <p align="justify">
+     *     Le risposte alle richieste di sola lettura che lo consentono vengono reperite dalla cache delle risposte,
+     *     se presenti, altrimenti vengono conservate al termine dell'elaborazione.
+     * </p>
+     * @param request la richiesta
+     * @param connection la connessione con il client
+     * @return il messaggio di risposta
+     */
+    private CharSequence process(Message.Request request, Connection connection) {
+        try {
+            // Servizio richiesto dal client
+            Method method = request.method;
+            // Parametri per poter elaborare la richiesta
+            String[] msgList = request.args;
             // Se il messaggio dopo il servizio richiesto contiene l'identificatore USER, lo assegno alla variabile
-            String user = (msgList[0].startsWith(USER.session))? msgList[0].split(":")[1] : "";
-            message = session + " "; // inizializzo il messaggio di risposta con la sessione
+            String user = (msgList.length > 0 && msgList[0].startsWith(USER.session))? msgList[0].split(":")[1] : "";
+            // Se la risposta può essere conservata ed è già presente nella cache, non elaboro la richiesta
+            ReplyCache cache = server.getReplyCache();
+            String key = ReplyCache.key(method, msgList);
+            ReplyCache.Reply cached = (key != null)? cache.get(key, msgList) : null;
+            if (cached != null) return cached;
+            long generation = (key != null)? cache.generation(key) : 0;
+            SessionRegistry.Session current = connection.session; // sessione dell'utente loggato sul client
+            String session = (current != null)? current.user : null; // null se è attiva una sessione da guest
+            String message = ""; // inizializzo il messaggio di risposta
 
             // Determino la richiesta da parte del client
             // Nel caso in cui non ci sia stato riscontro per il metodo, la richiesta non è conforme
@@ -173,12 +412,11 @@ public class TCPHandler extends Thread {
                 case LOGIN:
                     // Controllo che sul client sia attiva una sessione da guest e faccio il login,
                     // altrimenti comunico che c'è stato un errore
-                    if (session.startsWith(GUEST.session)) {
+                    if (session == null) {
                         try {
-                            // Comunico l'esito del login
-                            if (server.login(msgList[0], msgList[1])) message = SESSION + msgList[0] + " " + SUCCESS
-                                    + OK.info + "\n" + USER + msgList[0];
-                            else message += ERROR + LOGINERROR.toString();
+                            // Comunico l'esito del login e associo la sessione dell'utente alla connessione
+                            connection.session = server.openSession(msgList[0], msgList[1]);
+                            message += SUCCESS + OK.info + "\n" + USER + msgList[0];
                         } catch (UserNotRegisteredException | UserAlreadyLoggedInException
                                  | InvalidPasswordException | WrongPasswordException e) {
                             message += ERROR + exceptionToString(e);
@@ -188,22 +426,17 @@ public class TCPHandler extends Thread {
                 case LOGOUT:
                     // Controllo che sul client sia attiva una sessione con un utente loggato e provo a fare il logout,
                     // altrimenti comunico che c'è stato un errore
-                    if (session.startsWith(SESSION.session)) {
+                    if (session != null) {
                         // Controllo che l'utente della sessione attiva e l'utente che fa richiesta di logout
                         // siano effettivamente lo stesso, altrimenti comunico l'errore
-                        if (session.split(":")[1].equals(user)) {
-                            try {
-                                String client = ((InetSocketAddress)
-                                        ((SocketChannel) key.channel()).getRemoteAddress()).getHostString();
-                                // Comunico l'esito del logout
-                                if (server.logout(user)) {
-                                    message = GUEST + client + " " + SUCCESS + DONE.info;
-                                    System.out.println(HOTELIERServer.printCurrentDate() + "\t" + user + " left");
-                                }
-                                else message += ERROR + LOGOUTERROR.toString();
-                            } catch (UserNotLoggedInException | UserNotRegisteredException e) {
-                                message += ERROR + exceptionToString(e);
+                        if (session.equals(user)) {
+                            // Chiudo la sessione della connessione e comunico l'esito del logout
+                            if (server.closeSession(current)) {
+                                connection.session = null; // torno a una sessione da guest
+                                message += SUCCESS + DONE.info;
+                                System.out.println(HOTELIERServer.printCurrentDate() + "\t" + user + " left");
                             }
+                            else message += ERROR + LOGOUTERROR.toString();
                         } else message += ERROR + SESSIONERROR.toString();
                     } else message += ERROR + SESSIONERROR.toString();
                     break;
@@ -232,13 +465,23 @@ public class TCPHandler extends Thread {
                         message += ERROR + exceptionToString(e);
                     }
                     break;
+                case TOPK:
+                    // Analogo alla SEARCHALL, limitata ai primi hotel in classifica
+                    try {
+                        String results = server.searchTopHotels(msgList[0], Integer.parseInt(msgList[1]));
+                        if (!results.isEmpty()) message += SUCCESS + FOUND.info + "\n" + results;
+                        else message += SUCCESS + NOTFOUND.info;
+                    } catch (InvalidCityException e) {
+                        message += ERROR + exceptionToString(e);
+                    }
+                    break;
                 case INSERTREVIEW:
                     // Controllo che sul client sia attiva una sessione con un utente loggato
                     // e provo a pubblicare la recensione, altrimenti comunico l'errore
-                    if (session.startsWith(SESSION.session)) {
+                    if (session != null) {
                         // Controllo che l'utente della sessione attiva e l'utente che fa la richiesta
                         // siano effettivamente lo stesso, altrimenti comunico l'errore
-                        if (session.split(":")[1].trim().equals(user)) {
+                        if (session.equals(user)) {
                             try {
                                 // Definisco i parametri necessari per pubblicare la recensione
                                 double[] scores = new double[Ratings.getnCategories()];
@@ -250,12 +493,23 @@ public class TCPHandler extends Thread {
                             } catch (UserNotLoggedInException | UserNotRegisteredException | InvalidHotelException
                                      | InvalidCityException | InvalidScoreException | ReviewAlreadyPostedException e) {
                                 message += ERROR + exceptionToString(e);
+                            } catch (IOException e) {
+                                // La recensione non è stata registrata sul log, per cui la pubblicazione non è riuscita
+                                System.out.println(HOTELIERServer.printCurrentDate()
+                                        + "\tServer.TCPHandler.process(..): unable to write the review to the log");
+                                message += ERROR + INSERTREVIEWERROR.toString();
                             }
                         } else message += ERROR + SESSIONERROR.toString();
                     } else message += ERROR + SESSIONERROR.toString();
                     break;
                 case SHOWREVIEWS:
                     try {
+                        // Se la richiesta indica la dimensione della pagina, reperisco solo la pagina richiesta
+                        if (msgList.length > 2) {
+                            message += pageToString(server.showReviews(msgList[0], msgList[1],
+                                    Integer.parseInt(msgList[2]), cursor(msgList, 3)));
+                            break;
+                        }
                         // Reperisco tutte le recensioni relative all'hotel indicato dalla richiesta
                         // e controllo che non ci siano stati errori, altrimenti lo comunico
                         String results = server.showAllReviews(msgList[0], msgList[1]);
@@ -271,21 +525,32 @@ public class TCPHandler extends Thread {
                 case UPVOTE:
                     try {
                         // Comunico l'esito dell'operazione
-                        if (server.upvote(msgList[0].replace("#", ""), session.split(":", 2)[1]))
+                        if (server.upvote(msgList[0].replace("#", ""), connection.getSession()))
                             message += SUCCESS + DONE.info;
                         else message += SUCCESS + FAILURE.info;
                     } catch (InvalidReviewException | InvalidVoteException e) {
                         message += ERROR + exceptionToString(e);
+                    } catch (IOException e) {
+                        // Il voto non è stato registrato sul log, per cui non è riuscito
+                        System.out.println(HOTELIERServer.printCurrentDate()
+                                + "\tServer.TCPHandler.process(..): unable to write the upvote to the log");
+                        message += ERROR + BADREQUESTERROR.toString();
                     }
                     break;
                 case SHOWMYREVIEWS:
                     // Controllo che sul client sia attiva una sessione con un utente loggato
                     // e provo a elaborare la richiesta, altrimenti comunico che c'è stato un errore
-                    if (session.startsWith(SESSION.session)) {
+                    if (session != null) {
                         // Controllo che l'utente della sessione attiva e l'utente che fa la richiesta
                         // siano effettivamente lo stesso, altrimenti comunico l'errore
-                        if (session.split(":")[1].equals(user)) {
+                        if (session.equals(user)) {
                             try {
+                                // Se la richiesta indica la dimensione della pagina, reperisco solo la pagina richiesta
+                                if (msgList.length > 1) {
+                                    message += pageToString(server.showMyReviews(user,
+                                            Integer.parseInt(msgList[1]), cursor(msgList, 2)));
+                                    break;
+                                }
                                 // Reperisco tutte le recensioni pubblicate dall'utente che ha fatto la richiesta
                                 String results = server.showMyReviews(user);
                                 if (results != null) {
@@ -302,10 +567,10 @@ public class TCPHandler extends Thread {
                 case SHOWMYBADGES:
                     // Controllo che sul client sia attiva una sessione con un utente loggato
                     // e provo a elaborare la richiesta, altrimenti comunico che c'è stato un errore
-                    if (session.startsWith(SESSION.session)) {
+                    if (session != null) {
                         // Controllo che l'utente della sessione attiva e l'utente che fa la richiesta
                         // siano effettivamente lo stesso, altrimenti comunico l'errore
-                        if (session.split(":")[1].equals(user)) {
+                        if (session.equals(user)) {
                             try {
                                 // Comunico l'esito dell'operazione
                                 String badge = server.showMyBadges(user);
@@ -319,38 +584,75 @@ public class TCPHandler extends Thread {
                     } else message += ERROR + SESSIONERROR.toString();
             }
 
-            // Registro il canale con operazione di interesse OP_WRITE in modo da renderlo disponibile
-            // per una scrittura sullo stesso e inviare la risposta al client
-            channel.register(selector, SelectionKey.OP_WRITE, ByteBuffer.wrap(message.getBytes()));
+            // Conservo la risposta solo se la richiesta è andata a buon fine
+            if (key != null && message.startsWith(SUCCESS.toString())) return cache.put(key, generation, msgList, message);
+            return message;
+        } catch (RuntimeException e) {
+            // La richiesta non è conforme al formato previsto (ad esempio mancano dei parametri)
+            return ERROR + BADREQUESTERROR.toString();
         }
     }
 
     /**
      * <p align="justify">
-     *     Scrive i dati dal buffer sul canale.
+     *     Scrive sul canale le risposte da inviare al client, nell'ordine in cui sono state accodate, scrivendo più
+     *     buffer con un'unica operazione di scrittura. I buffer inviati per intero vengono restituiti al pool.
      * </p> <p align="justify">
-     *     Registra il canale con operazione di interesse {@link SelectionKey#OP_READ}.
+     *     Quando le risposte sono state inviate per intero, elabora le richieste rimaste in attesa.
      * </p>
      * @param key la chiave di selezione che include il riferimento al canale pronto e registrato con il selettore
      * @throws IOException
      */
     private void handleWrite(SelectionKey key) throws IOException {
-        // Reperisco il canale associato alla chiave indicata e l'attachment
+        // Reperisco il canale associato alla chiave indicata e lo stato della connessione
         SocketChannel channel = (SocketChannel) key.channel();
-        buffer = (ByteBuffer) key.attachment();
-        String reply = new String(buffer.array());
-        // Rimuovo dalla risposta il primo elemento che fa riferimento al tipo di sessione del client
-        buffer = ByteBuffer.wrap(reply.split(" ", 2)[1].getBytes(CHARSET));
-        channel.write(buffer); // scrivo il messaggio sul canale
-        // Quando ho scritto tutto, registro di nuovo il canale con operazione di interesse OP_READ
-        // in modo da renderlo disponibile per un'eventuale parsing di una nuova richiesta
-        if (buffer.hasRemaining()) return;
-        buffer.clear();
-        channel.register(selector, SelectionKey.OP_READ, key.attachment());
+        Connection connection = (Connection) key.attachment();
+        try {
+            while (!connection.output.isEmpty()) {
+                int length = 0;
+                for (ByteBuffer buffer: connection.output) {
+                    if (length == GATHER) break;
+                    gather[length++] = buffer;
+                }
+                channel.write(gather, 0, length); // scrivo i messaggi sul canale
+                ByteBuffer buffer;
+                while ((buffer = connection.output.peek()) != null && !buffer.hasRemaining())
+                    encoder.release(connection.output.poll());
+                // Se non è stato possibile scrivere tutto, riprendo alla prossima occasione da dove mi sono fermato
+                if (gather[length - 1].hasRemaining()) return;
+            }
+        } finally {
+            Arrays.fill(gather, null);
+        }
+        dispatch(key);
     }
 
 
     // Altri metodi
+    /**
+     * <p align="justify">
+     *     Restituisce il messaggio di risposta per la pagina di recensioni indicata. Se ci sono altre recensioni, la
+     *     descrizione dell'esito è seguita dal cursore della pagina successiva.
+     * </p>
+     * @param page la pagina di recensioni
+     * @return il messaggio di risposta
+     */
+    private static String pageToString(ReviewList.Page page) {
+        if (page.reviews.isEmpty()) return SUCCESS + NOTFOUND.info;
+        if (page.next > 0) return SUCCESS + MORE.info + " " + page.next + "\n" + page;
+        return SUCCESS + FOUND.info + "\n" + page;
+    }
+
+    /**
+     * Restituisce il cursore indicato dal parametro della richiesta nella posizione indicata, se presente.
+     * @param msgList i parametri della richiesta
+     * @param index la posizione del cursore
+     * @return il cursore, {@link Integer#MAX_VALUE} (prima pagina) se non è presente
+     */
+    private static int cursor(String[] msgList, int index) {
+        return (msgList.length > index)? Integer.parseInt(msgList[index]) : Integer.MAX_VALUE;
+    }
+
     /**
      * <p align="justify">
      *     Restituisce il nome semplice dell'eccezione indicata, seguita dalla descrizione della stessa.
@@ -0,0 +1,532 @@
+package Server;
+
+import Server.Database.Review;
+import Server.Database.User;
+import Server.Database.Hotel.Ratings;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+
+
+/**
+ * <p align="justify">
+ *     La classe {@code WriteAheadLog} estende la classe {@link Thread} e rappresenta il log in sola aggiunta delle
+ *     modifiche alle strutture dati del server: registrazioni, recensioni e voti. Le modifiche registrate dopo
+ *     l'ultimo backup vengono ripristinate all'avvio del server, sopra i dati del backup.
+ * </p> <p align="justify">
+ *     Le modifiche vengono accodate in memoria e scritte sul file da questo thread, che scrive in un'unica operazione
+ *     tutte quelle accodate nel frattempo (group commit). La sincronizzazione del file sul disco dipende dalla
+ *     politica indicata (vedi {@link Sync}): con {@link Sync#ALWAYS} la richiesta che ha effettuato la modifica
+ *     attende che sia stata sincronizzata, per cui le richieste concorrenti condividono un'unica sincronizzazione.
+ * </p> <p align="justify">
+ *     Il log è suddiviso in segmenti numerati. A ogni backup viene aperto un nuovo segmento e, una volta completato
+ *     il backup, i segmenti precedenti vengono eliminati. Ogni modifica viene registrata e confermata con
+ *     {@link #commit(long)} prima di diventare visibile alle altre richieste, ed è racchiusa tra {@link #beginUpdate()}
+ *     e {@link #endUpdate()}, così che all'apertura di un nuovo segmento tutte le modifiche registrate nei precedenti
+ *     siano già state applicate. Con {@link Sync#ALWAYS} una modifica il cui record non è stato scritto non viene
+ *     applicata; con le altre politiche viene applicata subito, e può andare persa come quelle non ancora sincronizzate.
+ * </p> <p align="justify">
+ *     Ogni record è preceduto dalla lunghezza e dal CRC32 del suo contenuto: il ripristino di un segmento si interrompe
+ *     al primo record incompleto o danneggiato, ad esempio scritto solo in parte prima di un crash. Il ripristino è
+ *     idempotente: le modifiche già presenti nel backup vengono ignorate.
+ * </p> <p align="justify">
+ *     Se la scrittura di un gruppo di record non riesce, il segmento viene riportato all'ultimo record scritto per
+ *     intero (o, se non è possibile, viene aperto un nuovo segmento), così che i record successivi possano essere
+ *     ripristinati, e le richieste che attendono i record del gruppo ricevono l'errore (vedi {@link #commit(long)}).
+ * </p>
+ */
+class WriteAheadLog extends Thread {
+    /** Directory dei segmenti all'interno della directory di backup */
+    static final String wal_dir = "wal/";
+    /** Prefisso del nome dei segmenti */
+    private static final String PREFIX = "wal_";
+    /** Estensione dei segmenti */
+    private static final String SUFFIX = ".log";
+    /** Dimensione in byte dell'intestazione di un record (lunghezza e CRC32 del contenuto) */
+    private static final int HEADER = 8;
+    /** Capacità iniziale dei buffer dei record accodati */
+    private static final int CAPACITY = 64 * 1024;
+    /** Tipi di record */
+    private static final byte REGISTER = 1, REVIEW = 2, UPVOTE = 3;
+
+    /** Directory dei segmenti */
+    private final File directory;
+    /** Politica di sincronizzazione del file sul disco */
+    private final Sync sync;
+    /** Intervallo di tempo in millisecondi tra una scrittura e la successiva, se non è attiva {@link Sync#ALWAYS} */
+    private final long interval;
+    /** Lock condiviso dalle modifiche e acquisito in modo esclusivo all'apertura di un nuovo segmento */
+    private final ReentrantReadWriteLock checkpointLock;
+    /** Lock per le operazioni sul file */
+    private final Object io;
+    /** Canale del segmento corrente */
+    private FileChannel channel;
+    /** Numero del segmento corrente */
+    private long segment;
+    /** Record accodati e non ancora scritti */
+    private ByteBuffer pending;
+    /** Buffer dei record in scrittura, scambiato con {@link #pending} a ogni scrittura */
+    private ByteBuffer spare;
+    /** Numero di record accodati, compresi quelli ripristinati all'avvio */
+    private long appended = 0;
+    /** Numero di record scritti secondo la politica di sincronizzazione */
+    private long durable = 0;
+    /** Gruppi di record la cui scrittura non è riuscita, per numero del primo record del gruppo */
+    private final NavigableMap<Long, Failure> failures = new TreeMap<>();
+    /** Indica se il log è stato chiuso (vedi {@link #close()}) */
+    private volatile boolean closed = false;
+
+    /**
+     * <p align="justify">
+     *     Costruisce il log nella directory indicata e apre un nuovo segmento, successivo a quelli presenti, che
+     *     devono essere ripristinati con {@link #replay(HOTELIERServer)} prima di avviare il thread.
+     * </p>
+     * @param directory la directory dei segmenti
+     * @param sync la politica di sincronizzazione
+     * @param interval l'intervallo di tempo in millisecondi tra una scrittura e la successiva
+     * @throws IOException se non è possibile creare il nuovo segmento
+     */
+    WriteAheadLog(File directory, Sync sync, long interval) throws IOException {
+        this.directory = directory;
+        this.sync = sync;
+        this.interval = interval;
+        this.checkpointLock = new ReentrantReadWriteLock();
+        this.io = new Object();
+        this.pending = ByteBuffer.allocate(CAPACITY);
+        this.spare = ByteBuffer.allocate(CAPACITY);
+        if (!directory.exists()) directory.mkdirs();
+        long[] segments = segments();
+        this.segment = (segments.length > 0)? segments[segments.length - 1] + 1 : 1;
+        this.channel = open(segment);
+    }
+
+    @Override
+    public void run() {
+        while (!closed) {
+            try {
+                synchronized (this) {
+                    // Attendo nuovi record o, se non sono da sincronizzare subito, l'intervallo stabilito
+                    if (sync == Sync.ALWAYS) while (pending.position() == 0 && !closed) wait();
+                    else if (!closed) wait(interval);
+                }
+                flush(sync != Sync.NEVER);
+            } catch (InterruptedException e) {
+                System.out.println(HOTELIERServer.printCurrentDate()
+                        + "\tServer.WriteAheadLog.run(): an error occurred while waiting for log records");
+            } catch (IOException e) {
+                System.out.println(HOTELIERServer.printCurrentDate()
+                        + "\tServer.WriteAheadLog.run(): an error occurred while writing log records");
+            }
+        }
+    }
+
+
+    // Metodi per la registrazione delle modifiche
+    /**
+     * Inizia una modifica, che deve essere registrata, confermata e applicata prima di {@link #endUpdate()}.
+     */
+    void beginUpdate() { checkpointLock.readLock().lock(); }
+
+    /**
+     * Termina una modifica iniziata con {@link #beginUpdate()}.
+     */
+    void endUpdate() { checkpointLock.readLock().unlock(); }
+
+    /**
+     * Registra la registrazione dell'utente indicato.
+     * @param id l'identificatore dell'utente
+     * @param username il nome utente
+     * @param password la password
+     * @return il numero del record, da indicare a {@link #commit(long)}
+     */
+    long logRegister(int id, String username, String password) {
+        return append(encode(out -> {
+            out.writeByte(REGISTER);
+            out.writeInt(id);
+            out.writeUTF(username);
+            out.writeUTF(password);
+        }));
+    }
+
+    /**
+     * Registra la pubblicazione della recensione indicata.
+     * @param review la recensione
+     * @return il numero del record, da indicare a {@link #commit(long)}
+     */
+    long logReview(Review review) {
+        return append(encode(out -> {
+            out.writeByte(REVIEW);
+            out.writeInt(review.getId());
+            out.writeLong(review.getTime());
+            out.writeUTF(review.getAuthor());
+            out.writeUTF(review.getHotel());
+            out.writeDouble(review.getRate());
+            for (double rating: review.getRatings()) out.writeDouble(rating);
+        }));
+    }
+
+    /**
+     * Registra il voto della sessione indicata per la recensione indicata.
+     * @param id l'identificatore della recensione
+     * @param session la sessione che ha votato la recensione
+     * @return il numero del record, da indicare a {@link #commit(long)}
+     */
+    long logUpvote(int id, String session) {
+        return append(encode(out -> {
+            out.writeByte(UPVOTE);
+            out.writeInt(id);
+            out.writeUTF(session);
+        }));
+    }
+
+    /**
+     * <p align="justify">
+     *     Attende che il record indicato sia stato sincronizzato sul disco, se è attiva la politica
+     *     {@link Sync#ALWAYS}; altrimenti termina subito. La modifica registrata deve essere applicata solo se il
+     *     metodo termina senza errori.
+     * </p>
+     * @param record il numero del record
+     * @throws IOException se non è stato possibile scrivere il record
+     */
+    void commit(long record) throws IOException {
+        if (sync != Sync.ALWAYS) return;
+        synchronized (this) {
+            while (durable < record) {
+                // Il record è stato accodato dopo la chiusura e non verrà scritto
+                if (closed) throw new IOException("the log has been closed");
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("interrupted while waiting for log record " + record);
+                }
+            }
+            // Il record è stato elaborato, controllo che la scrittura del suo gruppo sia riuscita
+            Map.Entry<Long, Failure> failure = failures.floorEntry(record);
+            if (failure != null && record <= failure.getValue().last) throw failure.getValue().exception;
+        }
+    }
+
+
+    /**
+     * <p align="justify">
+     *     Chiude il log: attende che le modifiche in corso siano state applicate e che il thread termini, quindi
+     *     scrive e sincronizza i record accodati, che con le politiche diverse da {@link Sync#ALWAYS} potrebbero non
+     *     essere ancora stati scritti, e chiude il segmento corrente. Le modifiche successive non vengono registrate.
+     * </p>
+     */
+    void close() {
+        checkpointLock.writeLock().lock();
+        try {
+            synchronized (this) {
+                closed = true;
+                notifyAll();
+            }
+            join();
+            synchronized (io) {
+                flush(true);
+                channel.close();
+            }
+        } catch (InterruptedException e) {
+            System.out.println(HOTELIERServer.printCurrentDate()
+                    + "\tServer.WriteAheadLog.close(): an error occurred while waiting for the log thread");
+        } catch (IOException e) {
+            System.out.println(HOTELIERServer.printCurrentDate()
+                    + "\tServer.WriteAheadLog.close(): an error occurred while writing log records");
+        } finally {
+            checkpointLock.writeLock().unlock();
+        }
+    }
+
+
+    // Metodi per il backup e il ripristino
+    /**
+     * <p align="justify">
+     *     Scrive e sincronizza i record accodati e apre un nuovo segmento, attendendo che le modifiche in corso siano
+     *     state applicate, quindi esegue l'operazione indicata prima che riprendano le modifiche. L'operazione vede le
+     *     strutture dati con tutte e sole le modifiche registrate nei segmenti precedenti.
+     * </p>
+     * @param action l'operazione da eseguire con le modifiche sospese, che deve terminare rapidamente
+     * @return il numero del nuovo segmento, da indicare a {@link #truncate(long)} una volta completato il backup
+     * @throws IOException se non è possibile scrivere i record o aprire il nuovo segmento
+     */
+    long checkpoint(Runnable action) throws IOException {
+        checkpointLock.writeLock().lock();
+        try {
+            synchronized (io) {
+                flush(true);
+                channel.close();
+                channel = open(++segment);
+            }
+            action.run();
+            return segment;
+        } finally {
+            checkpointLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Elimina i segmenti precedenti a quello indicato.
+     * @param segment il numero del primo segmento da conservare
+     */
+    void truncate(long segment) {
+        for (long number: segments()) if (number < segment && !file(number).delete())
+            System.out.println(HOTELIERServer.printCurrentDate()
+                    + "\tServer.WriteAheadLog.truncate(..): unable to delete log segment " + number);
+    }
+
+    /**
+     * <p align="justify">
+     *     Ripristina sul server indicato le modifiche registrate nei segmenti precedenti a quello corrente, in ordine
+     *     di registrazione.
+     * </p>
+     * @param server il server su cui ripristinare le modifiche
+     * @return il numero di record letti
+     */
+    synchronized long replay(HOTELIERServer server) {
+        long records = 0;
+        for (long number: segments()) {
+            if (number >= segment) break;
+            try (DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file(number))))) {
+                byte[] payload;
+                while ((payload = read(input)) != null) {
+                    DataInputStream record = new DataInputStream(new ByteArrayInputStream(payload));
+                    switch (record.readByte()) {
+                        case REGISTER -> server.restoreUser(new User(record.readInt(), record.readUTF(), record.readUTF()));
+                        case REVIEW -> {
+                            int id = record.readInt();
+                            long time = record.readLong();
+                            String author = record.readUTF(), hotel = record.readUTF();
+                            double rate = record.readDouble();
+                            double[] ratings = new double[Ratings.getnCategories()];
+                            for (int i = 0; i < ratings.length; i++) ratings[i] = record.readDouble();
+                            server.restoreReview(new Review(id, author, hotel, rate, ratings, time));
+                        }
+                        case UPVOTE -> server.restoreUpvote(record.readInt(), record.readUTF());
+                        default -> throw new IOException("unknown record type");
+                    }
+                    records++;
+                }
+            } catch (IOException e) {
+                System.out.println(HOTELIERServer.printCurrentDate()
+                        + "\tServer.WriteAheadLog.replay(..): an error occurred while reading log segment " + number);
+            }
+        }
+        // I record ripristinati contano come modifiche non ancora comprese in un backup (vedi records())
+        appended = durable = records;
+        return records;
+    }
+
+    /**
+     * <p align="justify">
+     *     Restituisce il numero di record registrati dall'avvio del server, compresi quelli ripristinati: se non è
+     *     cambiato, le strutture dati non sono state modificate.
+     * </p>
+     * @return il numero di record
+     */
+    synchronized long records() { return appended; }
+
+
+    // Altri metodi
+    /**
+     * Accoda il record con il contenuto indicato.
+     * @param payload il contenuto del record
+     * @return il numero del record
+     */
+    private synchronized long append(byte[] payload) {
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        if (pending.remaining() < HEADER + payload.length) {
+            ByteBuffer buffer = ByteBuffer.allocate(Math.max(pending.capacity() * 2, pending.position() + HEADER + payload.length));
+            pending.flip();
+            pending = buffer.put(pending);
+        }
+        pending.putInt(payload.length).putInt((int) crc.getValue()).put(payload);
+        if (sync == Sync.ALWAYS) notifyAll();
+        return ++appended;
+    }
+
+    /**
+     * <p align="justify">
+     *     Scrive sul segmento corrente i record accodati e, se indicato, sincronizza il file sul disco. I record
+     *     accodati nel frattempo vengono scritti all'operazione successiva.
+     * </p>
+     * @param force {@code true} per sincronizzare il file sul disco
+     * @throws IOException se non è possibile scrivere i record
+     */
+    private void flush(boolean force) throws IOException {
+        synchronized (io) {
+            long first, record;
+            synchronized (this) {
+                if (pending.position() == 0) return;
+                ByteBuffer buffer = pending;
+                pending = spare;
+                spare = buffer;
+                first = durable + 1;
+                record = appended;
+            }
+            spare.flip();
+            long offset = -1;
+            try {
+                offset = channel.size();
+                while (spare.hasRemaining()) channel.write(spare);
+                if (force) channel.force(false);
+            } catch (IOException e) {
+                // Elimino il gruppo scritto in parte, così che i record successivi possano essere ripristinati
+                rollback(offset);
+                synchronized (this) {
+                    failures.put(first, new Failure(record, e));
+                    if (failures.size() > Failure.LIMIT) failures.pollFirstEntry();
+                }
+                throw e;
+            } finally {
+                // Sblocco le richieste in attesa, quelle dei record non scritti ricevono l'errore (vedi commit(long))
+                spare.clear();
+                synchronized (this) {
+                    durable = record;
+                    notifyAll();
+                }
+            }
+        }
+    }
+
+    /**
+     * <p align="justify">
+     *     Riporta il segmento corrente alla dimensione indicata, dopo una scrittura non riuscita. Se non è possibile,
+     *     apre un nuovo segmento: il ripristino del segmento corrente si interrompe al record scritto in parte, quello
+     *     del nuovo segmento riprende dai record successivi.
+     * </p>
+     * @param offset la dimensione del segmento prima della scrittura, negativa se non è nota
+     */
+    private void rollback(long offset) {
+        try {
+            if (offset >= 0) {
+                channel.truncate(offset);
+                channel.force(false);
+                return;
+            }
+        } catch (IOException ignored) { }
+        try {
+            channel.close();
+        } catch (IOException ignored) { }
+        try {
+            channel = open(++segment);
+        } catch (IOException e) {
+            System.out.println(HOTELIERServer.printCurrentDate()
+                    + "\tServer.WriteAheadLog.rollback(..): unable to open log segment " + segment);
+        }
+    }
+
+    /**
+     * Legge il contenuto del prossimo record dallo stream indicato, verificandone l'integrità.
+     * @param input lo stream del segmento
+     * @return il contenuto del record o {@code null} se il segmento è terminato o il record non è integro
+     * @throws IOException se si verifica un errore di lettura
+     */
+    private static byte[] read(DataInputStream input) throws IOException {
+        try {
+            int length = input.readInt();
+            int checksum = input.readInt();
+            if (length <= 0) return null;
+            byte[] payload = new byte[length];
+            input.readFully(payload);
+            CRC32 crc = new CRC32();
+            crc.update(payload);
+            return ((int) crc.getValue() == checksum)? payload : null;
+        } catch (EOFException e) {
+            return null; // record incompleto
+        }
+    }
+
+    /**
+     * Codifica il contenuto di un record scritto dall'operazione indicata.
+     * @param writer l'operazione che scrive il contenuto
+     * @return il contenuto del record
+     */
+    private static byte[] encode(RecordWriter writer) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            writer.write(out);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // non si verifica scrivendo in memoria
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Restituisce i numeri dei segmenti presenti nella directory, in ordine crescente.
+     * @return i numeri dei segmenti
+     */
+    private long[] segments() {
+        File[] files = directory.listFiles((dir, name) -> name.startsWith(PREFIX) && name.endsWith(SUFFIX));
+        if (files == null) return new long[0];
+        return Arrays.stream(files)
+                .map(file -> file.getName().substring(PREFIX.length(), file.getName().length() - SUFFIX.length()))
+                .filter(number -> number.chars().allMatch(Character::isDigit) && !number.isEmpty())
+                .mapToLong(Long::parseLong).sorted().toArray();
+    }
+
+    private File file(long segment) {
+        return new File(directory, PREFIX + segment + SUFFIX);
+    }
+
+    private FileChannel open(long segment) throws IOException {
+        return FileChannel.open(file(segment).toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+
+    /**
+     * <p align="justify">
+     *     La classe {@code Failure} rappresenta un gruppo di record la cui scrittura non è riuscita.
+     * </p>
+     */
+    private static final class Failure {
+        /** Numero massimo di gruppi conservati */
+        static final int LIMIT = 1024;
+
+        /** Numero dell'ultimo record del gruppo */
+        final long last;
+        /** Errore di scrittura */
+        final IOException exception;
+
+        Failure(long last, IOException exception) {
+            this.last = last;
+            this.exception = exception;
+        }
+    }
+
+    /**
+     * <p align="justify">
+     *     L'interfaccia {@code RecordWriter} rappresenta un'operazione che scrive il contenuto di un record.
+     * </p>
+     */
+    private interface RecordWriter {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    /**
+     * <p align="justify">
+     *     La classe {@code Sync} rappresenta la politica di sincronizzazione del log sul disco.
+     * </p>
+     * @see #ALWAYS
+     * @see #INTERVAL
+     * @see #NEVER
+     */
+    enum Sync {
+        /** Ogni modifica attende la sincronizzazione prima della risposta, condivisa con le modifiche concorrenti */
+        ALWAYS,
+        /** I record vengono scritti e sincronizzati periodicamente, senza attese per le richieste */
+        INTERVAL,
+        /** I record vengono scritti periodicamente e la sincronizzazione è lasciata al sistema operativo */
+        NEVER
+    }
+}
@@ -0,0 +1,206 @@
+package Server;
+
+import MyExceptions.*;
+import Server.Database.Review;
+import Server.Database.ReviewList;
+import Server.Database.Hotel.Ratings;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.ServerSocket;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+
+
+/**
+ * <p align="justify">
+ *     La classe {@code ConcurrencyStressCheck} avvia un {@link HOTELIERServer} con i file di configurazione del server,
+ *     una directory di backup temporanea e porte libere, ed esegue da più thread un carico misto di pubblicazioni di
+ *     recensioni, voti (preceduti dalla lettura della recensione più recente di un hotel) e ricerche di hotel.
+ * </p> <p align="justify">
+ *     Al termine verifica che il numero di recensioni di ogni hotel e di ogni utente e il numero di voti di ogni
+ *     recensione corrispondano alle operazioni andate a buon fine, e che ogni recensione sia raggiungibile tramite
+ *     l'indice delle recensioni usato per i voti. Riporta inoltre il throughput del carico.
+ * </p> <p align="justify">
+ *     Uso: {@code java -cp <classi del server>:<classi di test>:<librerie> Server.ConcurrencyStressCheck [thread]
+ *     [operazioni per thread]}, dalla directory principale del progetto; termina con codice {@code 1} alla prima
+ *     incongruenza.
+ * </p>
+ */
+public class ConcurrencyStressCheck {
+    /** Directory dei file di configurazione del server */
+    private static final String CONFIG_FILEPATH = "src/Server/config/";
+    /** Password degli utenti del carico */
+    private static final String PASSWORD = "password";
+
+    /** Coppie <nome hotel, città> */
+    private static final Map<String, String> hotels = new LinkedHashMap<>();
+    /** Recensioni pubblicate durante il carico per hotel */
+    private static final Map<String, LongAdder> inserted = new ConcurrentHashMap<>();
+    /** Recensioni pubblicate durante il carico per utente */
+    private static final Map<String, LongAdder> posted = new ConcurrentHashMap<>();
+    /** Voti registrati durante il carico per recensione */
+    private static final Map<Integer, LongAdder> upvoted = new ConcurrentHashMap<>();
+    /** Esiti delle operazioni: pubblicazioni, pubblicazioni respinte per il timeout, voti, voti ripetuti, ricerche */
+    private static final LongAdder reviews = new LongAdder(), rejected = new LongAdder(), upvotes = new LongAdder(),
+            repeated = new LongAdder(), searches = new LongAdder();
+
+    public static void main(String[] args) throws Exception {
+        int threads = (args.length > 0)? Integer.parseInt(args[0]) : 8;
+        int operations = (args.length > 1)? Integer.parseInt(args[1]) : 2000;
+        JsonNode database = new ObjectMapper().readTree(new File(CONFIG_FILEPATH + "hotel_database.json"));
+        for (JsonNode hotel: database) hotels.put(hotel.get("name").asText(), hotel.get("city").asText());
+        List<String> names = new ArrayList<>(hotels.keySet());
+
+        // Avvio il server senza messaggi sulla console: il timeout tra due recensioni dello stesso utente per lo stesso
+        // hotel è quello predefinito, i backup periodici sono disattivati e il log delle modifiche non viene
+        // sincronizzato su disco
+        PrintStream out = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        File backup = Files.createTempDirectory("hotelier-stress").toFile();
+        HOTELIERServer server = new HOTELIERServer(freePort(), freePort(), "hotel_database", "user_database",
+                ".json", CONFIG_FILEPATH, backup.getPath() + File.separator, 12000, Long.MAX_VALUE,
+                "239.255.255.255", freePort(), 0, 0, 64, 8192, true, "never", 1000,
+                false, false);
+        Map<String, Integer> initial = new HashMap<>();
+        Map<Integer, Integer> votes = new HashMap<>();
+        for (String name: names) {
+            List<Review> list = reviews(server, name);
+            initial.put(name, list.size());
+            for (Review review: list) votes.put(review.getId(), review.getnUpvotes());
+        }
+        String[] usernames = new String[threads];
+        for (int t = 0; t < threads; t++) {
+            usernames[t] = "stress" + System.nanoTime() % 100000 + "_" + t;
+            server.register(usernames[t], PASSWORD);
+            server.login(usernames[t], PASSWORD);
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<?>> futures = new ArrayList<>();
+        long start = System.nanoTime();
+        for (String username: usernames) futures.add(executor.submit(() -> {
+            load(server, names, username, operations);
+            return null;
+        }));
+        try {
+            for (Future<?> future: futures) future.get();
+        } catch (ExecutionException e) {
+            System.setOut(out);
+            fail("unexpected exception " + e.getCause());
+        }
+        long time = Math.max((System.nanoTime() - start) / 1_000_000, 1);
+        executor.shutdown();
+        System.setOut(out);
+        System.out.println(threads + " threads, " + (long) threads * operations + " operations in " + time + " ms ("
+                + (long) threads * operations * 1000 / time + " ops/s, " + Runtime.getRuntime().availableProcessors()
+                + " processors): " + reviews + " reviews, " + rejected + " rejected reviews, " + upvotes + " upvotes, "
+                + repeated + " repeated upvotes, " + searches + " searches");
+
+        // Verifico le recensioni di ogni hotel e i relativi voti, e che l'indice restituisca la stessa recensione:
+        // il voto di controllo deve essere accettato e contato sulla recensione della lista dell'hotel
+        Set<Integer> ids = new HashSet<>();
+        for (String name: names) {
+            List<Review> list = reviews(server, name);
+            long expected = initial.get(name) + count(inserted, name);
+            if (list.size() != expected) fail(name + ": " + list.size() + " reviews, expected " + expected);
+            for (Review review: list) {
+                if (!review.getHotel().equals(name)) fail("review #" + review.getId() + " listed under " + name);
+                if (!ids.add(review.getId())) fail("review #" + review.getId() + " listed twice");
+                long upvotes = votes.getOrDefault(review.getId(), 0) + count(upvoted, review.getId());
+                if (review.getnUpvotes() != upvotes)
+                    fail("review #" + review.getId() + ": " + review.getnUpvotes() + " upvotes, expected " + upvotes);
+                if (!server.upvote(String.valueOf(review.getId()), "stress_check") || review.getnUpvotes() != upvotes + 1)
+                    fail("review #" + review.getId() + " is not reachable through the review index");
+            }
+        }
+        // Verifico le recensioni di ogni utente
+        for (String username: usernames) {
+            int size = server.showMyReviews(username, Integer.MAX_VALUE, Integer.MAX_VALUE).reviews.size();
+            if (size != count(posted, username))
+                fail(username + ": " + size + " reviews, expected " + count(posted, username));
+        }
+        System.out.println(ids.size() + " reviews checked, no inconsistencies");
+        System.exit(0);
+    }
+
+    /**
+     * Esegue il carico misto di un thread con l'utente indicato.
+     * @param server il server
+     * @param names i nomi degli hotel
+     * @param username l'utente del thread, che ha già effettuato l'accesso
+     * @param operations il numero di operazioni
+     * @throws Exception se un'operazione non va a buon fine per un motivo diverso da quelli previsti dal carico
+     */
+    private static void load(HOTELIERServer server, List<String> names, String username, int operations)
+            throws Exception {
+        Random random = new Random();
+        double[] scores = new double[Ratings.getnCategories()];
+        for (int n = 0; n < operations; n++) {
+            String name = names.get(random.nextInt(names.size()));
+            String city = hotels.get(name);
+            switch (random.nextInt(3)) {
+                case 0 -> {
+                    for (int i = 0; i < scores.length; i++) scores[i] = random.nextInt(6);
+                    try {
+                        server.insertReview(name, city, random.nextInt(6), scores, username);
+                        inserted.computeIfAbsent(name, key -> new LongAdder()).increment();
+                        posted.computeIfAbsent(username, key -> new LongAdder()).increment();
+                        reviews.increment();
+                    } catch (ReviewAlreadyPostedException e) {
+                        rejected.increment();
+                    }
+                }
+                case 1 -> {
+                    List<Review> latest = server.showReviews(name, city, 1, Integer.MAX_VALUE).reviews;
+                    if (latest.isEmpty() || latest.get(0).getAuthor().equals(username)) continue;
+                    int id = latest.get(0).getId();
+                    if (server.upvote(String.valueOf(id), username)) {
+                        upvoted.computeIfAbsent(id, key -> new LongAdder()).increment();
+                        upvotes.increment();
+                    } else repeated.increment();
+                }
+                default -> {
+                    if (!server.searchHotel(name, city).contains(name))
+                        throw new IllegalStateException("search of " + name + " did not return the hotel");
+                    searches.increment();
+                }
+            }
+        }
+    }
+
+    /**
+     * Restituisce tutte le recensioni dell'hotel indicato, in ordine decrescente di data.
+     * @param server il server
+     * @param name il nome dell'hotel
+     * @return le recensioni dell'hotel
+     */
+    private static List<Review> reviews(HOTELIERServer server, String name)
+            throws InvalidCityException, InvalidHotelException {
+        ReviewList.Page page = server.showReviews(name, hotels.get(name), Integer.MAX_VALUE, Integer.MAX_VALUE);
+        return page.reviews;
+    }
+
+    private static <K> long count(Map<K, LongAdder> counters, K key) {
+        LongAdder counter = counters.get(key);
+        return (counter != null)? counter.sum() : 0;
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private static void fail(String message) {
+        System.out.println(message);
+        System.exit(1);
+    }
+}
@@ -0,0 +1,75 @@
+package Server;
+
+import Server.Database.Hotel.City;
+import Server.Database.Hotel.Hotel;
+
+import java.util.*;
+
+
+/**
+ * <p align="justify">
+ *     La classe {@code RankBenchmark} misura l'assegnazione delle posizioni nella classifica di una città, confrontando
+ *     {@link HOTELIERServer#rank(List)} su una lista ad accesso diretto con l'assegnazione precedente, che cercava ogni
+ *     hotel nella lista ordinata con {@link List#indexOf(Object)} su una {@link LinkedList}. A ogni ripetizione i
+ *     punteggi degli hotel cambiano in modo casuale, e le posizioni assegnate dalle due implementazioni devono
+ *     coincidere.
+ * </p> <p align="justify">
+ *     Uso: {@code java -cp <classi del server>:<classi di test> Server.RankBenchmark [hotel per città, separati da
+ *     virgole] [ripetizioni]}; per ogni numero di hotel riporta il tempo minimo e mediano di un'assegnazione.
+ * </p>
+ */
+public class RankBenchmark {
+    /** Ripetizioni iniziali non misurate, per la compilazione dei metodi */
+    private static final int WARMUP = 20;
+
+    public static void main(String[] args) {
+        String[] sizes = ((args.length > 0)? args[0] : "5,100,1000,10000").split(",");
+        int rounds = (args.length > 1)? Integer.parseInt(args[1]) : 50;
+        Random random = new Random(42);
+
+        for (String size: sizes) {
+            int n = Integer.parseInt(size.trim());
+            List<Hotel> hotels = new ArrayList<>(n);
+            Hotel.Type[] types = Hotel.Type.values();
+            for (int i = 0; i < n; i++) hotels.add(new Hotel(City.ROMA, types[i % types.length]));
+            List<Hotel> linked = new LinkedList<>(hotels);
+            long[] indexOf = new long[rounds], sweep = new long[rounds];
+            Map<Hotel, Integer> expected = new IdentityHashMap<>(n);
+
+            // All'inizio di ogni ripetizione le due liste hanno lo stesso ordine, per cui l'ordinamento, che è stabile,
+            // produce lo stesso ordine anche tra gli hotel a pari merito
+            for (int round = -WARMUP; round < rounds; round++) {
+                // Pochi punteggi distinti, così che ci siano hotel a pari merito come nelle classifiche reali
+                for (Hotel hotel: hotels) hotel.setRanking(random.nextInt(Math.max(n / 4, 2)));
+                long start = System.nanoTime();
+                linked.sort(Comparator.comparingInt(Hotel::getRanking).reversed());
+                linked.forEach(element -> element.setRank(linked.indexOf(element) + 1));
+                long time = System.nanoTime() - start;
+                for (Hotel hotel: linked) expected.put(hotel, hotel.getRank());
+                if (round >= 0) indexOf[round] = time;
+
+                start = System.nanoTime();
+                HOTELIERServer.rank(hotels);
+                time = System.nanoTime() - start;
+                if (round >= 0) sweep[round] = time;
+                for (Hotel hotel: hotels) if (hotel.getRank() != expected.get(hotel)) {
+                    System.out.println(n + " hotels: different ranks for hotel #" + hotel.getId());
+                    System.exit(1);
+                }
+            }
+            System.out.println(n + " hotels: indexOf on LinkedList " + report(indexOf) + ", indexed sweep "
+                    + report(sweep));
+        }
+    }
+
+    /**
+     * Restituisce il tempo minimo e mediano delle ripetizioni indicate.
+     * @param times i tempi delle ripetizioni in nanosecondi
+     * @return la stringa che rappresenta i tempi in microsecondi
+     */
+    private static String report(long[] times) {
+        long[] sorted = times.clone();
+        Arrays.sort(sorted);
+        return String.format("min %.1f us, median %.1f us", sorted[0] / 1e3, sorted[sorted.length / 2] / 1e3);
+    }
+}
@@ -0,0 +1,89 @@
+package Server;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+import Server.Message.Request.Method;
+
+
+/**
+ * <p align="justify">
+ *     La classe {@code RequestParserCheck} verifica che {@link Message.Request#parse(byte[], int, int,
+ *     java.nio.charset.Charset)} suddivida i messaggi di richiesta come la suddivisione con le espressioni regolari
+ *     usata in precedenza, su messaggi casuali costruiti con i caratteri significativi per il formato (spazi,
+ *     virgolette, separatore della sessione) e su alcuni messaggi fissi.
+ * </p> <p align="justify">
+ *     Uso: {@code java -cp <classi del server>:<classi di test> Server.RequestParserCheck [messaggi] [seme]}; termina
+ *     con codice {@code 1} alla prima differenza.
+ * </p>
+ */
+public class RequestParserCheck {
+    /** Caratteri dei messaggi casuali, ripetuti per renderne più frequenti alcuni */
+    private static final String ALPHABET = "ab  \"\":é1";
+    /** Metodi all'inizio dei messaggi casuali, compreso uno non valido */
+    private static final String[] METHODS;
+    static {
+        Method[] methods = Method.values();
+        METHODS = new String[methods.length + 1];
+        for (int i = 0; i < methods.length; i++) METHODS[i] = methods[i].toString();
+        METHODS[methods.length] = "NOTAMETHOD";
+    }
+    /** Messaggi fissi */
+    private static final String[] SAMPLES = {
+            "LOGIN user pass",
+            "SEARCH \"Hotel Roma 1\" Roma",
+            "INSERTREVIEW user:name \"Hotel Roma 1\" Roma 4 3 4 5 2",
+            "SHOWREVIEWS \"Hotel Roma 1\" Roma 10 20",
+            "SHOWMYREVIEWS user:name 5",
+            "UPVOTE #1001",
+            "LOGOUT",
+            "LOGOUT ",
+            "SEARCH \"",
+            "SEARCH \"\"",
+            "SEARCH a \"b c",
+            "SEARCH \"a\" \"b\" ",
+            ""
+    };
+
+    public static void main(String[] args) {
+        int iterations = (args.length > 0)? Integer.parseInt(args[0]) : 1_000_000;
+        long seed = (args.length > 1)? Long.parseLong(args[1]) : System.nanoTime();
+        Random random = new Random(seed);
+
+        for (String sample: SAMPLES) check(sample, seed);
+        for (int n = 0; n < iterations; n++) {
+            StringBuilder message = new StringBuilder(METHODS[random.nextInt(METHODS.length)]);
+            // Alcuni messaggi non hanno parametri, gli altri iniziano con uno spazio
+            if (random.nextInt(16) > 0) message.append(' ');
+            for (int i = random.nextInt(24); i > 0; i--) message.append(ALPHABET.charAt(random.nextInt(ALPHABET.length())));
+            check(message.toString(), seed);
+        }
+        System.out.println((iterations + SAMPLES.length) + " messages checked, no differences (seed " + seed + ")");
+    }
+
+    /**
+     * Confronta la suddivisione del messaggio indicato con le due implementazioni.
+     * @param message il messaggio di richiesta
+     * @param seed il seme dei messaggi casuali, per riprodurre una differenza
+     */
+    private static void check(String message, long seed) {
+        byte[] bytes = message.getBytes(StandardCharsets.UTF_8);
+        Message.Request request = Message.Request.parse(bytes, 0, bytes.length, StandardCharsets.UTF_8);
+        Method method;
+        String[] expected;
+        try {
+            method = Method.fetchMethod(message.split(" \"?", 2)[0]);
+            expected = message.split(" \"?", 2)[1].split("\"?( |$)(?=(([^\"]*\"){2})*[^\"]*$)\"?");
+        } catch (ArrayIndexOutOfBoundsException e) {
+            // Il messaggio non ha parametri: la richiesta non è valida
+            method = null;
+            expected = new String[0];
+        }
+        if (request.method != method || !Arrays.equals(request.args, expected)) {
+            System.out.println("difference on [" + message + "] (seed " + seed + "):\n\texpected " + method + " "
+                    + Arrays.toString(expected) + "\n\tfound    " + request.method + " " + Arrays.toString(request.args));
+            System.exit(1);
+        }
+    }
+}
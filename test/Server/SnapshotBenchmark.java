@@ -0,0 +1,122 @@
+package Server;
+
+import Server.Database.Review;
+import Server.Database.User;
+import Server.Database.Hotel.Ratings;
+
+import com.fasterxml.jackson.annotation.JsonAutoDetect;
+import com.fasterxml.jackson.annotation.PropertyAccessor;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.*;
+
+
+/**
+ * <p align="justify">
+ *     La classe {@code SnapshotBenchmark} confronta la scrittura e la lettura di un backup degli utenti nel formato
+ *     JSON e nel formato binario (vedi {@link Snapshot}), con l'object mapper configurato come nel server. Gli utenti
+ *     hanno ciascuno lo stesso numero di recensioni, con voti casuali; dopo ogni lettura gli utenti letti devono
+ *     coincidere con quelli scritti.
+ * </p> <p align="justify">
+ *     Uso: {@code java -cp <classi del server>:<classi di test>:<librerie> Server.SnapshotBenchmark [recensioni]
+ *     [ripetizioni]}; per ogni formato riporta la dimensione del file e il tempo minimo e mediano di scrittura e di
+ *     lettura.
+ * </p>
+ */
+public class SnapshotBenchmark {
+    /** Recensioni per utente */
+    private static final int REVIEWS_PER_USER = 50;
+    /** Ripetizioni iniziali non misurate, per la compilazione dei metodi */
+    private static final int WARMUP = 2;
+
+    public static void main(String[] args) throws Exception {
+        int reviews = (args.length > 0)? Integer.parseInt(args[0]) : 200_000;
+        int rounds = (args.length > 1)? Integer.parseInt(args[1]) : 5;
+        List<User> users = users(Math.max(reviews / REVIEWS_PER_USER, 1), new Random(42));
+        String expected = digest(users);
+
+        ObjectMapper objectMapper = new ObjectMapper();
+        objectMapper.setVisibility(PropertyAccessor.ALL, JsonAutoDetect.Visibility.NONE);
+        objectMapper.setVisibility(PropertyAccessor.FIELD, JsonAutoDetect.Visibility.ANY);
+        ObjectWriter objectWriter = objectMapper.writer();
+        File directory = Files.createTempDirectory("hotelier-snapshot").toFile();
+
+        try {
+            for (String format: new String[] {Snapshot.JSON, Snapshot.BINARY}) {
+                File file = new File(directory, "users" + format);
+                long[] write = new long[rounds], read = new long[rounds];
+                for (int round = -WARMUP; round < rounds; round++) {
+                    long start = System.nanoTime();
+                    Snapshot.write(objectWriter, file, Snapshot.USER, new Snapshot<>(round + WARMUP, users));
+                    long middle = System.nanoTime();
+                    Snapshot<User> snapshot = Snapshot.read(objectMapper, file, Snapshot.USER);
+                    long end = System.nanoTime();
+                    if (snapshot.sequence != round + WARMUP || !digest(snapshot.data).equals(expected)) {
+                        System.out.println(format + ": the users read differ from the users written");
+                        System.exit(1);
+                    }
+                    if (round < 0) continue;
+                    write[round] = middle - start;
+                    read[round] = end - middle;
+                }
+                System.out.printf("%s: %d users, %d reviews, %.1f MB, write %s, read %s%n", format, users.size(),
+                        users.size() * REVIEWS_PER_USER, file.length() / 1e6, report(write), report(read));
+                file.delete();
+            }
+        } finally {
+            directory.delete();
+        }
+    }
+
+    /**
+     * Crea gli utenti del backup, con le rispettive recensioni.
+     * @param n il numero di utenti
+     * @param random il generatore dei dati delle recensioni
+     * @return gli utenti
+     */
+    private static List<User> users(int n, Random random) {
+        List<User> users = new ArrayList<>(n);
+        int id = 1001;
+        for (int u = 0; u < n; u++) {
+            User user = new User(1001 + u, "user" + u, "password" + u);
+            for (int i = 0; i < REVIEWS_PER_USER; i++) {
+                double[] ratings = new double[Ratings.getnCategories()];
+                for (int k = 0; k < ratings.length; k++) ratings[k] = random.nextInt(6);
+                Review review = new Review(id++, user.getUsername(), "Hotel Roma " + (1 + random.nextInt(5)),
+                        random.nextInt(6), ratings, 1_700_000_000_000L + id);
+                for (int k = random.nextInt(4); k > 0; k--) review.addUpvote("user" + random.nextInt(n));
+                user.addReview(review);
+            }
+            users.add(user);
+        }
+        return users;
+    }
+
+    /**
+     * Restituisce una stringa che rappresenta gli utenti indicati e le loro recensioni, per confrontarli.
+     * @param users gli utenti
+     * @return la stringa che rappresenta gli utenti
+     */
+    private static String digest(Collection<User> users) {
+        StringBuilder builder = new StringBuilder();
+        for (User user: users) {
+            builder.append(user.getId()).append(user.getUsername()).append(user.getBadge());
+            for (Review review: user.getReviews()) builder.append(review).append(review.getUpvotes());
+        }
+        return Integer.toHexString(builder.toString().hashCode()) + ":" + builder.length();
+    }
+
+    /**
+     * Restituisce il tempo minimo e mediano delle ripetizioni indicate.
+     * @param times i tempi delle ripetizioni in nanosecondi
+     * @return la stringa che rappresenta i tempi in millisecondi
+     */
+    private static String report(long[] times) {
+        long[] sorted = times.clone();
+        Arrays.sort(sorted);
+        return String.format("min %d ms, median %d ms", sorted[0] / 1_000_000, sorted[sorted.length / 2] / 1_000_000);
+    }
+}